@@ -1,4 +1,20 @@
 const GoogolplexTheater = {
+	decodeBase64: (data) => Uint8Array.from(atob(data), c => c.charCodeAt(0)),
+	inflate: async (bytes) => {
+		const stream = new Blob([bytes]).stream().pipeThrough(new DecompressionStream("deflate"));
+		return new Uint8Array(await new Response(stream).arrayBuffer());
+	},
+	decode: async (data) => {
+		const { encoding } = data;
+		if (!encoding) {
+			return data;
+		}
+		if (encoding !== "json-deflate") {
+			throw new Error("Unsupported encoding " + encoding);
+		}
+		const bytes = await GoogolplexTheater.inflate(GoogolplexTheater.decodeBase64(data.data));
+		return JSON.parse(new TextDecoder().decode(bytes));
+	},
 	init: (listener) => {
 		const sdkScript = document.createElement("SCRIPT");
 		sdkScript.type = "text/javascript";
@@ -11,17 +27,109 @@ const GoogolplexTheater = {
 			const sendMessage = (message) => {
 				context.sendCustomMessage(NAMESPACE_CUSTOM, undefined, message);
 			};
-			context.addCustomMessageListener(NAMESPACE_CUSTOM, customEvent => {
+			// the fingerprint of the settings which were last passed to the listener
+			let loadedFingerprint = null;
+			// broadcasts are the same for every device, so they do not include the name
+			let deviceName = null;
+			// settings which are waiting to be shown at a scheduled time
+			const staged = {};
+			// the listener may take a while to render, but it should not hold up the acknowledgement forever
+			const RENDER_TIMEOUT_MILLIS = 10000;
+			const load = async (settings, fingerprint) => {
+				const started = performance.now();
+				// the listener may return a promise which resolves once its content is ready
+				await Promise.race([
+					Promise.resolve(listener(deviceName, settings, sendMessage)),
+					new Promise(resolve => window.setTimeout(resolve, RENDER_TIMEOUT_MILLIS))
+				]);
+				// wait until the next frame is painted
+				await new Promise(resolve => window.requestAnimationFrame(() => window.requestAnimationFrame(resolve)));
+				loadedFingerprint = fingerprint || null;
+				return Math.round(performance.now() - started);
+			};
+			// the settings which are being loaded, so a retried push does not load them again
+			let loading = null;
+			context.addCustomMessageListener(NAMESPACE_CUSTOM, async customEvent => {
 				console.log("MESSAGE", customEvent);
 				if (customEvent.type === "message") {
-					const { data } = customEvent;
-					const { name, settings } = data;
-					listener(name, settings, sendMessage);
+					const data = await GoogolplexTheater.decode(customEvent.data);
+					const { type, name, settings, fingerprint, requestId, stageId } = data;
+					if (name !== undefined) {
+						deviceName = name;
+					}
+					switch (type) {
+						case "TIME":
+							// the sender uses this to estimate the offset of our clock
+							sendMessage({ type, requestId, time: Date.now() });
+							return;
+						case "STAGE":
+							staged[stageId] = settings;
+							sendMessage({ type: "STAGED", requestId });
+							return;
+						case "COMMIT": {
+							const stagedSettings = staged[stageId];
+							delete staged[stageId];
+							if (stagedSettings !== undefined) {
+								// the time is already in terms of our clock
+								window.setTimeout(() => load(stagedSettings, null), Math.max(0, data.at - Date.now()));
+							}
+							sendMessage({ type: "COMMITTED", requestId });
+							return;
+						}
+					}
+					let renderMillis = null;
+					if (settings !== undefined) {
+						if (fingerprint && loading && loading.fingerprint === fingerprint) {
+							// the sender retried before the settings finished loading
+							await loading.promise;
+						} else {
+							const current = { fingerprint, promise: load(settings, fingerprint) };
+							loading = current;
+							renderMillis = await current.promise;
+							if (loading === current) {
+								loading = null;
+							}
+						}
+					}
+					if (requestId === undefined) {
+						// this is a broadcast, which is not acknowledged
+						return;
+					}
+					/*
+					 * the sender omits the settings if it believes they are loaded already. report what is actually
+					 * loaded, so the sender can send the full settings if needed. the time to render is measured here,
+					 * so the sender can track how long it takes for settings to reach the screen.
+					 */
+					sendMessage({
+						type: "LOADED",
+						requestId,
+						fingerprint: loadedFingerprint,
+						renderMillis
+					});
+				}
+			});
+			/*
+			 * a sender which dropped may just be reconnecting, so give it a chance to come back before quitting. the
+			 * content stays loaded in the meantime, so the sender does not need to have it reloaded. a sender which
+			 * closed the session on purpose, such as when the device was removed from its config, is not coming back.
+			 */
+			const DISCONNECT_GRACE_MILLIS = 60000;
+			let disconnectTimeout = null;
+			context.addEventListener(cast.framework.system.EventType.SENDER_CONNECTED, ev => {
+				window.clearTimeout(disconnectTimeout);
+			});
+			context.addEventListener(cast.framework.system.EventType.SENDER_DISCONNECTED, ev => {
+				if (context.getSenders().length === 0) {
+					window.clearTimeout(disconnectTimeout);
+					if (ev.reason === cast.framework.system.DisconnectReason.REQUESTED_BY_SENDER) {
+						window.close();
+						return;
+					}
+					disconnectTimeout = window.setTimeout(() => window.close(), DISCONNECT_GRACE_MILLIS);
 				}
 			});
-			context.addEventListener(cast.framework.system.EventType.SENDER_DISCONNECTED, ev => window.close());
 			context.start(options);
 		}
 		document.body.appendChild(sdkScript);
 	}
-};
\ No newline at end of file
+};
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import java.util.List;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * This class reports which of the targeted devices a broadcast was delivered to.
+ *
+ * @author jyuzawa
+ */
+@Value
+@Builder
+public final class BroadcastResult {
+    long elapsedMillis;
+    int delivered;
+    List<Device> devices;
+
+    public enum Delivery {
+        /** The message was written to the device. */
+        DELIVERED,
+        /** The message could not be written, likely because the connection was lost. */
+        FAILED,
+        /** The receiver application is not up on the device. */
+        NOT_CONNECTED
+    }
+
+    @Value
+    @Builder
+    public static final class Device {
+        String name;
+        Delivery delivery;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.WireFormat;
+import com.jyuzawa.googolplex_theater.protobuf.Wire.CastMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.CombinedChannelDuplexHandler;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.handler.codec.TooLongFrameException;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * This class frames and serializes the messages exchanged with the device. Each message is prefixed
+ * with its length as a 4-byte integer. Inbound messages are parsed directly from the framed bytes
+ * without copying them into an intermediate array. Outbound messages are written along with their
+ * length prefix into a single buffer. An optional filter can examine the routing fields of inbound
+ * messages, so unwanted messages are dropped before their payloads are decoded. Messages which only
+ * differ in their routing can share a single serialized payload.
+ *
+ * @author jyuzawa
+ */
+final class CastMessageCodec extends CombinedChannelDuplexHandler<CastMessageCodec.Decoder, CastMessageCodec.Encoder> {
+    static final int LENGTH_FIELD_LENGTH = 4;
+
+    CastMessageCodec(int maxFrameLength) {
+        this(maxFrameLength, null);
+    }
+
+    CastMessageCodec(int maxFrameLength, Filter filter) {
+        super(new Decoder(maxFrameLength, filter), new Encoder());
+    }
+
+    /** A check performed on the routing fields of a message prior to fully parsing the message. */
+    @FunctionalInterface
+    interface Filter {
+        /**
+         * Decide whether the message should be parsed and passed along.
+         *
+         * @param namespace the namespace of the message
+         * @param sourceId the sender of the message
+         * @param destinationId the recipient of the message
+         * @return whether to keep the message
+         */
+        boolean accept(String namespace, String sourceId, String destinationId);
+    }
+
+    private static CodedInputStream newStream(ByteBuf frame) {
+        if (frame.nioBufferCount() == 1) {
+            return CodedInputStream.newInstance(frame.nioBuffer());
+        }
+        return CodedInputStream.newInstance(new ByteBufInputStream(frame));
+    }
+
+    /**
+     * Read only the routing fields from a frame and apply the filter to them. The payload is skipped
+     * over without being decoded.
+     *
+     * @param frame the bytes of the message
+     * @param filter the check to apply
+     * @return whether the filter accepted the message
+     * @throws IOException when the message is malformed
+     */
+    static boolean accept(ByteBuf frame, Filter filter) throws IOException {
+        CodedInputStream stream = newStream(frame);
+        String namespace = "";
+        String sourceId = "";
+        String destinationId = "";
+        int tag;
+        while ((tag = stream.readTag()) != 0) {
+            if (WireFormat.getTagWireType(tag) != WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+                stream.skipField(tag);
+                continue;
+            }
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case CastMessage.NAMESPACE_FIELD_NUMBER -> namespace = stream.readString();
+                case CastMessage.SOURCE_ID_FIELD_NUMBER -> sourceId = stream.readString();
+                case CastMessage.DESTINATION_ID_FIELD_NUMBER -> destinationId = stream.readString();
+                default -> stream.skipField(tag);
+            }
+        }
+        return filter.accept(namespace, sourceId, destinationId);
+    }
+
+    /**
+     * Parse a message from a frame without the length prefix.
+     *
+     * @param frame the bytes of the message
+     * @return the message
+     * @throws IOException when the message is malformed
+     */
+    static CastMessage parse(ByteBuf frame) throws IOException {
+        return CastMessage.parseFrom(newStream(frame));
+    }
+
+    /**
+     * Serialize a message into the buffer in place.
+     *
+     * @param message the message to write
+     * @param length the serialized size of the message
+     * @param out the destination buffer
+     * @throws IOException when the message could not be written
+     */
+    static void write(MessageLite message, int length, ByteBuf out) throws IOException {
+        out.ensureWritable(length);
+        int writerIndex = out.writerIndex();
+        CodedOutputStream stream = CodedOutputStream.newInstance(out.nioBuffer(writerIndex, length));
+        message.writeTo(stream);
+        stream.checkNoSpaceLeft();
+        out.writerIndex(writerIndex + length);
+    }
+
+    /**
+     * Serialize a string payload as it appears at the end of a message. The payload is the last field
+     * of the message, so it can be shared by several messages which differ only in their routing.
+     *
+     * @param alloc the allocator for the buffer
+     * @param payloadUtf8 the payload
+     * @return the serialized payload field
+     * @throws IOException when the payload could not be written
+     */
+    static ByteBuf encodePayload(ByteBufAllocator alloc, String payloadUtf8) throws IOException {
+        int length = CodedOutputStream.computeStringSize(CastMessage.PAYLOAD_UTF8_FIELD_NUMBER, payloadUtf8);
+        ByteBuf out = alloc.directBuffer(length);
+        CodedOutputStream stream = CodedOutputStream.newInstance(out.nioBuffer(0, length));
+        stream.writeString(CastMessage.PAYLOAD_UTF8_FIELD_NUMBER, payloadUtf8);
+        stream.checkNoSpaceLeft();
+        out.writerIndex(length);
+        return out;
+    }
+
+    /**
+     * Frame a message ahead of time, such as one which is sent repeatedly. The result is the same as
+     * what the encoder writes.
+     *
+     * @param alloc the allocator for the buffer
+     * @param message the message
+     * @return the framed message
+     * @throws IOException when the message could not be written
+     */
+    static ByteBuf frame(ByteBufAllocator alloc, CastMessage message) throws IOException {
+        int length = message.getSerializedSize();
+        ByteBuf out = alloc.directBuffer(LENGTH_FIELD_LENGTH + length);
+        out.writeInt(length);
+        write(message, length, out);
+        return out;
+    }
+
+    /**
+     * Frame a message from its routing fields and a shared payload. Only the routing is serialized,
+     * and the payload is referenced rather than copied. The result is the same as encoding the full
+     * message.
+     *
+     * @param alloc the allocator for the routing buffer
+     * @param routing a message with no payload
+     * @param payload a serialized payload field, which is retained by the result
+     * @return the framed message
+     * @throws IOException when the routing could not be written
+     */
+    static ByteBuf frame(ByteBufAllocator alloc, CastMessage routing, ByteBuf payload) throws IOException {
+        int routingLength = routing.getSerializedSize();
+        ByteBuf header = alloc.directBuffer(LENGTH_FIELD_LENGTH + routingLength);
+        header.writeInt(routingLength + payload.readableBytes());
+        write(routing, routingLength, header);
+        return alloc.compositeDirectBuffer(2).addComponents(true, header, payload.retainedDuplicate());
+    }
+
+    static final class Decoder extends ByteToMessageDecoder {
+        private final int maxFrameLength;
+        private final Filter filter;
+
+        private Decoder(int maxFrameLength, Filter filter) {
+            this.maxFrameLength = maxFrameLength;
+            this.filter = filter;
+        }
+
+        @Override
+        protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+            if (in.readableBytes() < LENGTH_FIELD_LENGTH) {
+                return;
+            }
+            int readerIndex = in.readerIndex();
+            long length = in.getUnsignedInt(readerIndex);
+            if (length > maxFrameLength) {
+                // there is no way to find the start of the next frame, so discard everything
+                in.skipBytes(in.readableBytes());
+                throw new TooLongFrameException("Frame length exceeds " + maxFrameLength + ": " + length);
+            }
+            int frameLength = (int) length;
+            if (in.readableBytes() < LENGTH_FIELD_LENGTH + frameLength) {
+                return;
+            }
+            ByteBuf frame = in.slice(readerIndex + LENGTH_FIELD_LENGTH, frameLength);
+            in.skipBytes(LENGTH_FIELD_LENGTH + frameLength);
+            if (filter == null || accept(frame, filter)) {
+                out.add(parse(frame));
+            }
+        }
+    }
+
+    static final class Encoder extends MessageToByteEncoder<CastMessage> {
+
+        private Encoder() {
+            super(CastMessage.class, true);
+        }
+
+        @Override
+        protected ByteBuf allocateBuffer(ChannelHandlerContext ctx, CastMessage msg, boolean preferDirect) {
+            // the exact size is known, so there is no need to resize the buffer
+            return ctx.alloc().ioBuffer(LENGTH_FIELD_LENGTH + msg.getSerializedSize());
+        }
+
+        @Override
+        protected void encode(ChannelHandlerContext ctx, CastMessage msg, ByteBuf out) throws IOException {
+            int length = msg.getSerializedSize();
+            out.writeInt(length);
+            write(msg, length, out);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import java.time.Duration;
+import java.time.Instant;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * This class holds the state of a device's channel. A channel may reconnect several times, so this
+ * information persists across the underlying connections.
+ *
+ * @author jyuzawa
+ */
+@Getter
+@Setter
+public final class ChannelState {
+    /** When the settings were applied to the device. */
+    private final Instant created = Instant.now();
+
+    /** When the receiver first reported the settings as rendered, or null if it has not. */
+    private volatile Instant displayed;
+
+    /** When the receiver application came up, or null if it is not up. */
+    private volatile Instant birth;
+
+    /** The fingerprint of the settings which the receiver last reported as loaded. */
+    private volatile String loadedFingerprint;
+
+    /**
+     * The smoothed round trip time of the heartbeats in nanoseconds, or -1 if none was measured. This
+     * is kept as a primitive, so measuring each heartbeat does not allocate.
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile long roundTripNanos = -1;
+
+    /** The smoothed deviation of the heartbeat round trips from their average, in nanoseconds. */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile long roundTripVarianceNanos;
+
+    /** The interval between heartbeats if it was adapted, or null for the configured interval. */
+    private volatile Duration heartbeatInterval;
+
+    /** How many steady heartbeats occurred since the interval last changed. */
+    private volatile int stableHeartbeats;
+
+    /** How far the clock of the device is ahead of ours, or null if it was not estimated. */
+    private volatile Duration clockOffset;
+
+    /** The current connection to the device, or null if there is none. */
+    @Getter(AccessLevel.PACKAGE)
+    @Setter(AccessLevel.PACKAGE)
+    private volatile GoogolplexClient.GoogolplexConnection connection;
+
+    /**
+     * @return the smoothed round trip time of the heartbeats, or null if none was measured
+     */
+    public Duration getRoundTrip() {
+        long nanos = roundTripNanos;
+        return nanos < 0 ? null : Duration.ofNanos(nanos);
+    }
+
+    long getRoundTripNanos() {
+        return roundTripNanos;
+    }
+
+    long getRoundTripVarianceNanos() {
+        return roundTripVarianceNanos;
+    }
+
+    /**
+     * Incorporate a new measurement into the round trip time. The measurements are smoothed like TCP
+     * does, so a single slow heartbeat does not dominate. The variance is tracked likewise.
+     *
+     * @param sampleNanos the measured round trip in nanoseconds
+     */
+    void sampleRoundTrip(long sampleNanos) {
+        long current = roundTripNanos;
+        if (current < 0) {
+            roundTripNanos = sampleNanos;
+            roundTripVarianceNanos = sampleNanos / 2;
+        } else {
+            long variance = roundTripVarianceNanos;
+            roundTripVarianceNanos = variance - variance / 4 + Math.abs(current - sampleNanos) / 4;
+            roundTripNanos = current - current / 8 + sampleNanos / 8;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import java.time.Duration;
+import lombok.Builder;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * The settings of the connections to the devices. These are bound from the flat
+ * googolplex-theater.* keys, such as googolplex-theater.request-timeout.
+ *
+ * @param appId the cast application to launch
+ * @param retryInterval how long to wait before reconnecting
+ * @param requestTimeout how long to wait for a request to be acknowledged
+ * @param requestRetries how many times to resend an idempotent request
+ * @param relaunchAttempts how many times to relaunch the application before reconnecting
+ * @param relaunchInterval how long to wait before relaunching, which grows with each attempt
+ * @param maxConcurrentConnects how many connections may be established at once
+ * @param tlsSessionCacheSize how many TLS sessions to keep for resumption
+ * @param tlsSessionTimeout how long to keep TLS sessions for resumption
+ * @param eventLoopThreads the number of event loop threads, or zero for the default
+ * @param preferNativeTransport whether to use the native transport if it is available
+ * @param pooledDirectBuffers whether to pool the buffers
+ * @param bufferArenas the number of buffer arenas, or zero for the default
+ * @param bufferChunkSize the size of the buffer chunks, or zero for the default
+ * @param maxFrameLength the largest message accepted from a device
+ * @param deviceHistograms whether to record timings for each device
+ * @param customEncoding how messages to our receiver application are encoded, either json or json-deflate
+ * @author jyuzawa
+ */
+@Builder(toBuilder = true)
+@ConfigurationProperties("googolplex-theater")
+public record ClientProperties(
+        String appId,
+        Duration retryInterval,
+        Duration requestTimeout,
+        int requestRetries,
+        int relaunchAttempts,
+        Duration relaunchInterval,
+        int maxConcurrentConnects,
+        long tlsSessionCacheSize,
+        Duration tlsSessionTimeout,
+        int eventLoopThreads,
+        boolean preferNativeTransport,
+        boolean pooledDirectBuffers,
+        int bufferArenas,
+        DataSize bufferChunkSize,
+        DataSize maxFrameLength,
+        boolean deviceHistograms,
+        String customEncoding) {}
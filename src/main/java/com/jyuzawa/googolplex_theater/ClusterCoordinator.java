@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * This interface tracks which instances are part of a cluster. Each instance holds a lease which it
+ * must renew before it expires, otherwise the other instances consider it gone.
+ *
+ * @author jyuzawa
+ */
+public interface ClusterCoordinator extends Closeable {
+
+    /**
+     * Renew the lease of this instance, joining the cluster if needed.
+     *
+     * @return the ids of the instances with live leases, including this one, in the order they joined
+     * @throws IOException if the lease could not be renewed
+     */
+    List<String> renew() throws IOException;
+
+    /**
+     * Give up the lease of this instance, so the other instances can take over right away.
+     *
+     * @throws IOException if the lease could not be released
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.jmdns.impl.util.NamedThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * This class keeps this instance's lease in the cluster and tells the controller which instances are
+ * live, so the devices can be split between them. In standby mode, only the longest lived instance is
+ * given devices, so another instance takes over as soon as its lease lapses. If the lease cannot be
+ * renewed in time, the other instances will take over its devices, so this instance lets go of all of
+ * them.
+ *
+ * @author jyuzawa
+ */
+@Slf4j
+@Component
+public final class ClusterManager implements Closeable {
+
+    private final GoogolplexService service;
+    private final ClusterMode mode;
+    private final Path path;
+    private final String memberId;
+    private final Duration leaseDuration;
+    private ScheduledExecutorService executor;
+    private ClusterCoordinator coordinator;
+    private List<String> owners;
+    private long renewedNanos;
+
+    @Autowired
+    public ClusterManager(GoogolplexService service, Path appHome, ClusterProperties properties) throws IOException {
+        this.service = service;
+        this.mode = ClusterMode.of(properties.clusterMode());
+        this.path = appHome.resolve(properties.clusterPath()).toAbsolutePath();
+        String memberId = properties.clusterMemberId();
+        this.memberId = memberId == null || memberId.isEmpty() ? defaultMemberId() : memberId;
+        this.leaseDuration = properties.clusterLease();
+        this.owners = List.of();
+    }
+
+    private static String defaultMemberId() throws IOException {
+        return InetAddress.getLocalHost().getHostName() + "-" + ProcessHandle.current().pid();
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (mode == ClusterMode.STANDALONE) {
+            return;
+        }
+        log.info("Joining cluster {} as '{}'", path, memberId);
+        this.coordinator = new FileLockCoordinator(path, memberId, leaseDuration);
+        this.renewedNanos = System.nanoTime();
+        this.executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("clusterManager"));
+        // renew well before the lease expires, so a slow renewal does not lose it
+        long renewMillis = Math.max(1, leaseDuration.toMillis() / 3);
+        executor.scheduleWithFixedDelay(this::renew, 0, renewMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void renew() {
+        List<String> newOwners;
+        try {
+            newOwners = getOwners(mode, coordinator.renew());
+            renewedNanos = System.nanoTime();
+        } catch (Exception e) {
+            log.warn("Failed to renew cluster lease", e);
+            if (owners.isEmpty() || System.nanoTime() - renewedNanos < leaseDuration.toNanos()) {
+                return;
+            }
+            log.warn("CLUSTER_LEASE_LOST '{}'", memberId);
+            newOwners = List.of();
+        }
+        if (!newOwners.equals(owners)) {
+            log.info("CLUSTER_OWNERS {}", newOwners);
+            if (mode == ClusterMode.STANDBY && newOwners.contains(memberId)) {
+                log.info("CLUSTER_ACTIVE '{}'", memberId);
+            }
+            owners = newOwners;
+            service.updateMembers(memberId, newOwners);
+        }
+    }
+
+    /**
+     * @param mode the cluster mode
+     * @param members the live instances in the order they joined
+     * @return the instances which should be given devices
+     */
+    static List<String> getOwners(ClusterMode mode, List<String> members) {
+        if (mode == ClusterMode.STANDBY && members.size() > 1) {
+            return List.of(members.get(0));
+        }
+        return members;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            // pass
+        }
+        // let the other instances take over right away
+        coordinator.close();
+    }
+}
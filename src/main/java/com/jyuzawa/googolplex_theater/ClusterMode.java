@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+/**
+ * This enum represents how an instance cooperates with other instances on the same network.
+ *
+ * @author jyuzawa
+ */
+public enum ClusterMode {
+    /** The instance manages every device by itself. */
+    STANDALONE("standalone"),
+    /** The devices are split between the live instances by consistent hashing of their names. */
+    SHARDED("sharded"),
+    /**
+     * The instance which joined first manages every device. The others discover the devices and load
+     * the config, but only connect once they become the active instance.
+     */
+    STANDBY("standby");
+
+    private final String label;
+
+    ClusterMode(String label) {
+        this.label = label;
+    }
+
+    public static ClusterMode of(String label) {
+        for (ClusterMode mode : values()) {
+            if (mode.label.equals(label)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Invalid cluster mode: " + label);
+    }
+
+    public String getLabel() {
+        return label;
+    }
+}
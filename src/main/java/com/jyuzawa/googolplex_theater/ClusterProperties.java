@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import java.time.Duration;
+import lombok.Builder;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * The settings of the cluster, which splits the devices between instances.
+ *
+ * @param clusterMode standalone, sharded, or standby
+ * @param clusterPath the directory shared by the instances
+ * @param clusterMemberId the id of this instance, or empty to derive it from the host
+ * @param clusterLease how long an instance stays a member without renewing
+ * @param clusterRampRate how many devices to connect per second when taking over, or zero for all at
+ *     once
+ * @author jyuzawa
+ */
+@Builder(toBuilder = true)
+@ConfigurationProperties("googolplex-theater")
+public record ClusterProperties(
+        String clusterMode, String clusterPath, String clusterMemberId, Duration clusterLease, int clusterRampRate) {}
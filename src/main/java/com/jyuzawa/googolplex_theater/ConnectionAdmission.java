@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+/**
+ * This class limits how many connection attempts are in progress at once. When the limit is reached,
+ * the waiting attempts are admitted in order of the priority of their devices, and then in order of
+ * arrival. This matters after an outage, when every device tries to connect at once.
+ *
+ * @author jyuzawa
+ */
+final class ConnectionAdmission {
+    private final int limit;
+    private final PriorityQueue<Ticket> waiting;
+    private int inProgress;
+    private long sequence;
+
+    /**
+     * Create a limiter.
+     *
+     * @param limit the maximum number of attempts in progress at once, or zero for no limit
+     */
+    ConnectionAdmission(int limit) {
+        this.limit = limit;
+        this.waiting = new PriorityQueue<>(Comparator.comparingInt((Ticket ticket) -> -ticket.priority)
+                .thenComparingLong(ticket -> ticket.sequence));
+    }
+
+    private enum TicketState {
+        WAITING,
+        ADMITTED,
+        DONE
+    }
+
+    private static final class Ticket {
+        private final int priority;
+        private final long sequence;
+        private MonoSink<Void> sink;
+        private TicketState state;
+
+        private Ticket(int priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.state = TicketState.WAITING;
+        }
+    }
+
+    /**
+     * Run an attempt once it is admitted. Its slot is freed once it completes, fails, or is cancelled.
+     *
+     * @param priority the priority of the device, higher goes first
+     * @param attempt the connection attempt
+     * @return the result of the attempt
+     */
+    <T> Mono<T> admit(int priority, Mono<T> attempt) {
+        if (limit <= 0) {
+            return attempt;
+        }
+        return Mono.defer(() -> {
+            Ticket ticket;
+            synchronized (this) {
+                ticket = new Ticket(priority, sequence++);
+            }
+            return Mono.<Void>create(sink -> enqueue(ticket, sink))
+                    .then(attempt)
+                    .doFinally(sig -> finish(ticket));
+        });
+    }
+
+    private void enqueue(Ticket ticket, MonoSink<Void> sink) {
+        synchronized (this) {
+            if (ticket.state != TicketState.WAITING) {
+                // cancelled before it was even queued
+                return;
+            }
+            ticket.sink = sink;
+            if (inProgress >= limit) {
+                waiting.add(ticket);
+                return;
+            }
+            inProgress++;
+            ticket.state = TicketState.ADMITTED;
+        }
+        sink.success();
+    }
+
+    private void finish(Ticket ticket) {
+        Ticket next;
+        synchronized (this) {
+            TicketState state = ticket.state;
+            ticket.state = TicketState.DONE;
+            if (state == TicketState.WAITING) {
+                waiting.remove(ticket);
+                return;
+            }
+            if (state != TicketState.ADMITTED) {
+                return;
+            }
+            next = waiting.poll();
+            if (next == null) {
+                inProgress--;
+                return;
+            }
+            // hand the slot directly to the next attempt
+            next.state = TicketState.ADMITTED;
+        }
+        next.sink.success();
+    }
+
+    synchronized int getInProgress() {
+        return inProgress;
+    }
+
+    synchronized int getWaiting() {
+        return waiting.size();
+    }
+}
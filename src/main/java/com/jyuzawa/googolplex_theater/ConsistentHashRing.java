@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class assigns devices to instances by consistent hashing of the device names. Each instance
+ * is placed at many points on the ring, so the devices are split evenly, and when an instance joins
+ * or leaves only the devices which it gains or loses are moved. The hash is stable across processes,
+ * so every instance arrives at the same assignment from the same members.
+ *
+ * @author jyuzawa
+ */
+final class ConsistentHashRing {
+    /** The number of points on the ring for each instance. */
+    static final int VIRTUAL_NODES = 128;
+
+    static final ConsistentHashRing EMPTY = new ConsistentHashRing(List.of());
+
+    private final TreeMap<Long, String> ring;
+
+    ConsistentHashRing(Collection<String> members) {
+        this.ring = new TreeMap<>();
+        for (String member : members) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(hash(member + "#" + i), member);
+            }
+        }
+    }
+
+    /**
+     * @param name the device's name
+     * @return the instance which owns the device, or null if there are no instances
+     */
+    String getOwner(String name) {
+        if (ring.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash(name));
+        if (entry == null) {
+            // wrap around the ring
+            entry = ring.firstEntry();
+        }
+        return entry.getValue();
+    }
+
+    static long hash(String value) {
+        MessageDigest digest = FingerprintUtil.newDigest();
+        return ByteBuffer.wrap(digest.digest(value.getBytes(StandardCharsets.UTF_8)))
+                .getLong();
+    }
+}
@@ -5,12 +5,25 @@
 package com.jyuzawa.googolplex_theater;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.Value;
+import org.springframework.scheduling.support.CronExpression;
 
 /**
  * This is a POJO for YAML deserialization. This class represents a collection of named devices and
@@ -21,8 +34,17 @@ import lombok.Data;
  */
 @Data
 public final class DeviceConfig {
+    /** The devices with the shared settings merged in. */
     private final List<DeviceInfo> devices;
 
+    /** The devices as they were declared, without the shared settings. */
+    @JsonIgnore
+    private final List<DeviceInfo> declaredDevices;
+
+    /** The settings shared by all devices, or null if there are none. */
+    @JsonIgnore
+    private final ObjectNode settings;
+
     public DeviceConfig() {
         this(null, null);
     }
@@ -30,26 +52,148 @@ public final class DeviceConfig {
     @JsonCreator
     public DeviceConfig(
             @JsonProperty("devices") List<DeviceInfo> devices, @JsonProperty("settings") ObjectNode settings) {
+        this.settings = settings;
         if (devices == null) {
             this.devices = Collections.emptyList();
+            this.declaredDevices = Collections.emptyList();
         } else {
             List<DeviceInfo> newDevices = new ArrayList<>(devices.size());
             for (DeviceInfo device : devices) {
                 newDevices.add(device.merge(settings));
             }
             this.devices = Collections.unmodifiableList(newDevices);
+            this.declaredDevices = Collections.unmodifiableList(new ArrayList<>(devices));
+        }
+    }
+
+    /**
+     * Create a new configuration with some devices added, replaced, or removed. The other devices and
+     * the shared settings are kept as they are.
+     *
+     * @param devices devices to add, or to replace the devices with the same names
+     * @param removed names of devices to remove
+     * @return the new configuration
+     */
+    public DeviceConfig patch(Collection<DeviceInfo> devices, Collection<String> removed) {
+        Map<String, DeviceInfo> byName = new LinkedHashMap<>();
+        for (DeviceInfo device : declaredDevices) {
+            byName.put(device.getName(), device);
+        }
+        if (removed != null) {
+            byName.keySet().removeAll(removed);
+        }
+        if (devices != null) {
+            for (DeviceInfo device : devices) {
+                byName.put(device.getName(), device);
+            }
+        }
+        return new DeviceConfig(new ArrayList<>(byName.values()), settings);
+    }
+
+    /**
+     * @return the configuration in the same form as the devices file
+     */
+    public Map<String, Object> toDeclared() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        if (settings != null) {
+            out.put("settings", settings);
         }
+        out.put("devices", declaredDevices);
+        return out;
     }
 
     @Data
     public static final class DeviceInfo {
         private final String name;
+
+        /**
+         * The settings are shared with any other devices which have the same settings, so they are only
+         * handed out as copies. They are compared by their fingerprint instead.
+         */
+        @Getter(AccessLevel.NONE)
+        @EqualsAndHashCode.Exclude
         private final ObjectNode settings;
 
+        /**
+         * Devices with a higher priority are connected first when connections are throttled, such as
+         * after an outage. The default is zero, and negative values are allowed.
+         */
+        @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+        private final int priority;
+
+        /**
+         * The groups the device belongs to, such as a floor or a room. Operations can be targeted at all
+         * of the devices with a tag.
+         */
+        @JsonInclude(JsonInclude.Include.NON_EMPTY)
+        private final Set<String> tags;
+
+        /** Recurring refreshes or settings changes for the device. */
+        @JsonInclude(JsonInclude.Include.NON_EMPTY)
+        private final List<Schedule> schedules;
+
+        @JsonIgnore
+        private final String fingerprint;
+
+        @JsonIgnore
+        @Getter(AccessLevel.NONE)
+        @EqualsAndHashCode.Exclude
+        @ToString.Exclude
+        private final InternedSettings interned;
+
+        public DeviceInfo(String name, ObjectNode settings) {
+            this(name, settings, null);
+        }
+
+        public DeviceInfo(String name, ObjectNode settings, Integer priority) {
+            this(name, settings, priority, null, null);
+        }
+
+        public DeviceInfo(String name, ObjectNode settings, Integer priority, Collection<String> tags) {
+            this(name, settings, priority, tags, null);
+        }
+
         @JsonCreator
-        public DeviceInfo(@JsonProperty("name") String name, @JsonProperty("settings") ObjectNode settings) {
+        public DeviceInfo(
+                @JsonProperty("name") String name,
+                @JsonProperty("settings") ObjectNode settings,
+                @JsonProperty("priority") Integer priority,
+                @JsonProperty("tags") Collection<String> tags,
+                @JsonProperty("schedules") List<Schedule> schedules) {
             this.name = name;
-            this.settings = settings;
+            this.interned = InternedSettings.intern(settings);
+            this.settings = interned.getSettings();
+            this.priority = priority == null ? 0 : priority;
+            this.tags = tags == null || tags.isEmpty()
+                    ? Collections.emptySet()
+                    : Collections.unmodifiableSet(new TreeSet<>(tags));
+            this.schedules = schedules == null ? Collections.emptyList() : List.copyOf(schedules);
+            this.fingerprint = interned.getFingerprint();
+        }
+
+        /**
+         * @param other another version of this device
+         * @return whether the devices would show the same thing, so any difference is limited to the
+         *     tags or schedules
+         */
+        public boolean isEquivalent(DeviceInfo other) {
+            return priority == other.priority && fingerprint.equals(other.fingerprint);
+        }
+
+        /**
+         * @return a copy of the settings, which may be modified without affecting any device
+         */
+        public ObjectNode getSettings() {
+            return settings == null ? null : settings.deepCopy();
+        }
+
+        /**
+         * @return the settings serialized as JSON, which is shared with other devices with the same
+         *     settings
+         */
+        @JsonIgnore
+        public String getSettingsJson() {
+            return interned.getJson();
         }
 
         public DeviceInfo merge(ObjectNode settings) {
@@ -59,7 +203,33 @@ public final class DeviceConfig {
             ObjectNode newSettings = new ObjectNode(MapperUtil.YAML_MAPPER.getNodeFactory());
             newSettings.setAll(settings);
             newSettings.setAll(this.settings);
-            return new DeviceInfo(name, newSettings);
+            return new DeviceInfo(name, newSettings, priority, tags, schedules);
+        }
+    }
+
+    /**
+     * A recurring action for a device. Without settings, the device is refreshed. With settings, they
+     * are laid over the device's settings and sent to the device without reconnecting. The device
+     * returns to its own settings when it is next refreshed.
+     */
+    @Value
+    public static final class Schedule {
+        /**
+         * When to run, as a cron expression with a seconds field in the local time zone, such as "0 0 8 *
+         * * MON-FRI" or "@hourly".
+         */
+        String cron;
+
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        ObjectNode settings;
+
+        @JsonCreator
+        public Schedule(@JsonProperty("cron") String cron, @JsonProperty("settings") ObjectNode settings) {
+            if (cron == null || !CronExpression.isValidExpression(cron)) {
+                throw new IllegalArgumentException("Invalid cron expression: " + cron);
+            }
+            this.cron = cron;
+            this.settings = settings;
         }
     }
 }
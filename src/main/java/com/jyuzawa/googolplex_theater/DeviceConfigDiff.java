@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import com.jyuzawa.googolplex_theater.DeviceConfig.DeviceInfo;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.Value;
+
+/**
+ * This class describes how a new device configuration differs from the current one. The devices are
+ * compared by name, priority, and the fingerprint of their settings, so the settings trees are never
+ * walked. If a name appears more than once, the last device with that name is used.
+ *
+ * @author jyuzawa
+ */
+@Value
+public final class DeviceConfigDiff {
+    /** Devices which are not in the current configuration, in their original order. */
+    List<DeviceInfo> added;
+
+    /** Devices whose priority or settings changed, in their original order. */
+    List<DeviceInfo> changed;
+
+    /** Names of current devices which are missing from the new configuration. */
+    List<String> removed;
+
+    /**
+     * Compare a new configuration to the current one.
+     *
+     * @param current the current devices by name
+     * @param devices the devices of the new configuration
+     * @return the differences
+     */
+    public static DeviceConfigDiff compute(Map<String, DeviceInfo> current, Collection<DeviceInfo> devices) {
+        Map<String, DeviceInfo> incoming = new LinkedHashMap<>();
+        for (DeviceInfo deviceInfo : devices) {
+            incoming.put(deviceInfo.getName(), deviceInfo);
+        }
+        List<DeviceInfo> added = new ArrayList<>();
+        List<DeviceInfo> changed = new ArrayList<>();
+        int retained = 0;
+        for (DeviceInfo deviceInfo : incoming.values()) {
+            DeviceInfo oldDeviceInfo = current.get(deviceInfo.getName());
+            if (oldDeviceInfo == null) {
+                added.add(deviceInfo);
+                continue;
+            }
+            retained++;
+            if (!deviceInfo.equals(oldDeviceInfo)) {
+                changed.add(deviceInfo);
+            }
+        }
+        List<String> removed;
+        if (retained == current.size()) {
+            // every current device is still present, so there is no need to look for missing ones
+            removed = Collections.emptyList();
+        } else {
+            removed = new ArrayList<>();
+            for (String name : current.keySet()) {
+                if (!incoming.containsKey(name)) {
+                    removed.add(name);
+                }
+            }
+        }
+        return new DeviceConfigDiff(
+                Collections.unmodifiableList(added),
+                Collections.unmodifiableList(changed),
+                Collections.unmodifiableList(removed));
+    }
+
+    /**
+     * @return whether the configurations are equivalent
+     */
+    public boolean isEmpty() {
+        return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+    }
+}
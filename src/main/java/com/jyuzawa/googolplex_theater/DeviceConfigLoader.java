@@ -6,14 +6,21 @@ package com.jyuzawa.googolplex_theater;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -26,28 +33,47 @@ import org.springframework.stereotype.Component;
 
 /**
  * This class loads the device config at start and watches the files for subsequent changes. The
- * controller is notified of such changes.
+ * controller is notified of such changes. Optionally, changes made through the API are written back
+ * to the file.
  *
  * @author jyuzawa
  */
 @Slf4j
 @Component
 public final class DeviceConfigLoader implements Closeable {
+    /** The number of recent writes which are recognized when the file watcher reports them. */
+    private static final int PERSISTED_HISTORY = 16;
 
     private final ExecutorService executor;
+    private final ExecutorService persister;
+    private final boolean persistDeviceChanges;
     private final Path path;
     private final Path directoryPath;
     private WatchService watchService;
     private final GoogolplexService service;
+    /**
+     * The digests of the content of the recent writes. The watcher may report a write after later
+     * changes were already applied, so reloading it could briefly revert them.
+     */
+    private final Set<String> persisted = Collections.synchronizedSet(
+            Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > PERSISTED_HISTORY;
+                }
+            }));
 
     @Autowired
     public DeviceConfigLoader(
             GoogolplexService service,
             Path appHome,
-            @Value("${googolplex-theater.devices-path}") String deviceConfigPath)
+            @Value("${googolplex-theater.devices-path}") String deviceConfigPath,
+            @Value("${googolplex-theater.persist-device-changes}") boolean persistDeviceChanges)
             throws IOException {
         this.service = service;
         this.executor = Executors.newSingleThreadExecutor(new NamedThreadFactory("deviceConfigLoader"));
+        this.persister = Executors.newSingleThreadExecutor(new NamedThreadFactory("deviceConfigPersister"));
+        this.persistDeviceChanges = persistDeviceChanges;
         this.path = appHome.resolve(deviceConfigPath).toAbsolutePath();
         log.info("Using device config: {}", path);
         if (!Files.isRegularFile(path)) {
@@ -102,11 +128,59 @@ public final class DeviceConfigLoader implements Closeable {
      * @throws IOException when YAML deserialization fails
      */
     private void load() throws IOException {
+        byte[] content = Files.readAllBytes(path);
+        if (persisted.contains(digest(content))) {
+            // the config in the file was applied before it was written
+            log.debug("Skipping persisted device config");
+            return;
+        }
         log.info("Reloading device config");
-        try (InputStream stream = Files.newInputStream(path)) {
-            DeviceConfig out = MapperUtil.YAML_MAPPER.readValue(stream, DeviceConfig.class);
-            service.processDeviceConfig(out);
+        // the file was changed by someone else, so a later return to the content of our writes is a change too
+        persisted.clear();
+        DeviceConfig out = MapperUtil.YAML_MAPPER.readValue(content, DeviceConfig.class);
+        service.processDeviceConfig(out);
+    }
+
+    private static String digest(byte[] content) {
+        return HexFormat.of().formatHex(FingerprintUtil.newDigest().digest(content));
+    }
+
+    /**
+     * Write the current config back to the file, if enabled. The file is written in the background and
+     * replaced atomically, so a reader never sees a partial file. The snapshot is taken when the write
+     * starts, so a burst of changes leads to writes of the latest config.
+     *
+     * @return a future which completes once the file is written
+     */
+    public CompletableFuture<Void> persist() {
+        if (!persistDeviceChanges) {
+            return CompletableFuture.completedFuture(null);
         }
+        return CompletableFuture.runAsync(
+                () -> {
+                    try {
+                        byte[] content = MapperUtil.YAML_MAPPER.writeValueAsBytes(
+                                service.getDeviceConfig().toDeclared());
+                        // this must be known before the watcher can see the write
+                        persisted.add(digest(content));
+                        Path temp = Files.createTempFile(directoryPath, ".devices", ".tmp");
+                        try {
+                            Files.write(temp, content);
+                            Files.move(
+                                    temp,
+                                    path,
+                                    StandardCopyOption.REPLACE_EXISTING,
+                                    StandardCopyOption.ATOMIC_MOVE);
+                        } finally {
+                            Files.deleteIfExists(temp);
+                        }
+                        log.info("Persisted device config");
+                    } catch (IOException e) {
+                        log.error("Failed to persist device config", e);
+                        throw new UncheckedIOException(e);
+                    }
+                },
+                persister);
     }
 
     @Override
@@ -115,8 +189,10 @@ public final class DeviceConfigLoader implements Closeable {
             watchService.close();
         }
         executor.shutdown();
+        persister.shutdown();
         try {
             executor.awaitTermination(1, TimeUnit.MINUTES);
+            persister.awaitTermination(1, TimeUnit.MINUTES);
         } catch (InterruptedException e) {
             // pass
         }
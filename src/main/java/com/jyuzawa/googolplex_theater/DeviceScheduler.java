@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import com.jyuzawa.googolplex_theater.DeviceConfig.Schedule;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.support.CronExpression;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Mono;
+
+/**
+ * This class runs the scheduled actions of the devices. All of the pending runs are kept in a single
+ * queue ordered by time, and only the earliest one has a timer. Each run is delayed by an offset
+ * derived from the device and the schedule, so that devices with the same schedule are spread over
+ * the jitter window instead of all acting at the same instant. The offset is stable, so each device
+ * keeps its place in the window.
+ *
+ * <p>This class is not thread safe. Everything, including the runs themselves, happens on the given
+ * executor.
+ *
+ * @author jyuzawa
+ */
+@Slf4j
+final class DeviceScheduler {
+    private final long jitterMillis;
+    private final ZoneId zone;
+    private final Executor executor;
+    private final BiConsumer<String, Schedule> runner;
+    private final PriorityQueue<Job> queue;
+    private final Map<String, List<Job>> nameToJobs;
+    private final Disposable.Swap wakeup;
+    private Instant wakeupAt;
+
+    DeviceScheduler(Duration jitter, ZoneId zone, Executor executor, BiConsumer<String, Schedule> runner) {
+        if (jitter.isNegative()) {
+            throw new IllegalArgumentException("Invalid schedule-jitter, must not be negative");
+        }
+        this.jitterMillis = jitter.toMillis();
+        this.zone = zone;
+        this.executor = executor;
+        this.runner = runner;
+        this.queue = new PriorityQueue<>(Comparator.comparing((Job job) -> job.fireAt));
+        this.nameToJobs = new HashMap<>();
+        this.wakeup = Disposables.swap();
+    }
+
+    private static final class Job {
+        private final String name;
+        private final Schedule schedule;
+        private final CronExpression cron;
+        private final long offsetMillis;
+        private Instant due;
+        private Instant fireAt;
+        private boolean cancelled;
+
+        private Job(String name, Schedule schedule, long offsetMillis) {
+            this.name = name;
+            this.schedule = schedule;
+            this.cron = CronExpression.parse(schedule.getCron());
+            this.offsetMillis = offsetMillis;
+        }
+    }
+
+    /**
+     * Replace the schedules of a device. Schedules which did not change keep their pending runs.
+     *
+     * @param name the device's name
+     * @param schedules the device's schedules, which may be empty
+     * @param now the current time
+     */
+    void update(String name, List<Schedule> schedules, Instant now) {
+        List<Job> oldJobs = nameToJobs.remove(name);
+        if (oldJobs != null) {
+            if (schedules.equals(getSchedules(oldJobs))) {
+                nameToJobs.put(name, oldJobs);
+                return;
+            }
+            for (Job job : oldJobs) {
+                // the queue is cleaned up lazily
+                job.cancelled = true;
+            }
+        }
+        if (!schedules.isEmpty()) {
+            List<Job> jobs = new ArrayList<>(schedules.size());
+            for (Schedule schedule : schedules) {
+                Job job = new Job(name, schedule, getOffsetMillis(name, schedule));
+                if (enqueue(job, now)) {
+                    jobs.add(job);
+                }
+            }
+            nameToJobs.put(name, jobs);
+        }
+        rearm(now);
+    }
+
+    private static List<Schedule> getSchedules(List<Job> jobs) {
+        List<Schedule> out = new ArrayList<>(jobs.size());
+        for (Job job : jobs) {
+            out.add(job.schedule);
+        }
+        return out;
+    }
+
+    long getOffsetMillis(String name, Schedule schedule) {
+        if (jitterMillis == 0) {
+            return 0;
+        }
+        long hash = 31L * name.hashCode() + schedule.getCron().hashCode();
+        // spread the hash bits so similar names land apart
+        hash *= 0x9E3779B97F4A7C15L;
+        return Math.floorMod(hash ^ (hash >>> 32), jitterMillis);
+    }
+
+    /**
+     * Queue the next run of a job after the given time.
+     *
+     * @return whether the job will run again
+     */
+    private boolean enqueue(Job job, Instant after) {
+        ZonedDateTime next = job.cron.next(after.minusMillis(job.offsetMillis).atZone(zone));
+        if (next == null) {
+            return false;
+        }
+        job.due = next.toInstant();
+        job.fireAt = job.due.plusMillis(job.offsetMillis);
+        queue.add(job);
+        return true;
+    }
+
+    /**
+     * Run all of the jobs which are due, then wait for the next one.
+     *
+     * @param now the current time
+     */
+    void runDue(Instant now) {
+        Job job;
+        while ((job = queue.peek()) != null && !job.fireAt.isAfter(now)) {
+            queue.poll();
+            if (job.cancelled) {
+                continue;
+            }
+            try {
+                runner.accept(job.name, job.schedule);
+            } catch (Exception e) {
+                log.warn("SCHEDULE_FAILED '{}'", job.name, e);
+            }
+            // a late run, such as after the host was suspended, is not repeated to catch up
+            Instant after = job.due.isBefore(now.minusMillis(job.offsetMillis))
+                    ? now.minusMillis(job.offsetMillis)
+                    : job.due;
+            enqueue(job, after.plusMillis(job.offsetMillis));
+        }
+        rearm(now);
+    }
+
+    /**
+     * @return when the next run will happen, or null if nothing is scheduled
+     */
+    Instant getNextRun() {
+        Job job;
+        while ((job = queue.peek()) != null && job.cancelled) {
+            queue.poll();
+        }
+        return job == null ? null : job.fireAt;
+    }
+
+    /**
+     * @return the number of runs which are queued
+     */
+    int size() {
+        getNextRun();
+        return queue.size();
+    }
+
+    private void rearm(Instant now) {
+        Instant next = getNextRun();
+        if (next == null) {
+            wakeupAt = null;
+            wakeup.update(Disposables.disposed());
+            return;
+        }
+        if (next.equals(wakeupAt)) {
+            return;
+        }
+        wakeupAt = next;
+        Duration delay = Duration.between(now, next);
+        if (delay.isNegative()) {
+            delay = Duration.ZERO;
+        }
+        wakeup.update(Mono.delay(delay).subscribe(ignored -> executor.execute(() -> {
+            wakeupAt = null;
+            runDue(Instant.now());
+        })));
+    }
+
+    void close() {
+        wakeup.dispose();
+        queue.clear();
+        nameToJobs.clear();
+    }
+}
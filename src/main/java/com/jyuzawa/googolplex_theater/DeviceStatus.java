@@ -6,15 +6,21 @@ package com.jyuzawa.googolplex_theater;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import java.time.Instant;
+import java.util.Set;
 import lombok.Builder;
 import lombok.Value;
+import lombok.extern.jackson.Jacksonized;
 
 @Value
 @Builder
+@Jacksonized
 public final class DeviceStatus {
     String name;
     String ipAddress;
     JsonNode settings;
+    Set<String> tags;
     Instant birth;
     String uptime;
+    boolean dormant;
+    String owner;
 }
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+import java.time.Instant;
+import java.util.List;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * This class is the merged view of the devices of several instances, such as one per site. The
+ * devices are sorted by site and then by name. Each site reports when it was last heard from, so
+ * devices from a site which has gone quiet can be told apart.
+ *
+ * @author jyuzawa
+ */
+@Value
+@Builder
+public final class FederatedStatus {
+    Instant generated;
+    List<Site> sites;
+    List<Device> devices;
+
+    @Value
+    @Builder
+    public static final class Site {
+        String name;
+        String url;
+        /** When the last snapshot was received, or null if none was. */
+        Instant updated;
+        /** Whether the last snapshot is too old to be trusted. */
+        boolean stale;
+        /** Why the feed was lost, if it was. */
+        String error;
+        int devices;
+    }
+
+    @Value
+    @Builder
+    public static final class Device {
+        String site;
+        boolean stale;
+
+        @JsonUnwrapped
+        DeviceStatus status;
+    }
+}
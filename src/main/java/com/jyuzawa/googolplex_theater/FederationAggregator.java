@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import java.io.Closeable;
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.util.retry.Retry;
+
+/**
+ * This class follows the status feeds of other instances, such as one per site, and keeps the latest
+ * snapshot of each. All of the feeds are followed at once and in the background, so serving the
+ * merged view only reads the cached snapshots. A lost feed is resubscribed after a delay, and the
+ * snapshot is kept until then but is marked as stale once it is too old.
+ *
+ * @author jyuzawa
+ */
+@Slf4j
+@Component
+public final class FederationAggregator implements Closeable {
+
+    private static final ParameterizedTypeReference<ServerSentEvent<List<DeviceStatus>>> TYPE =
+            new ParameterizedTypeReference<>() {};
+
+    private final WebClient webClient;
+    private final List<Site> sites;
+    private final Duration staleAfter;
+    private final Duration retryInterval;
+    private final Map<String, Snapshot> nameToSnapshot;
+    private final Disposable.Composite subscriptions;
+
+    @Autowired
+    public FederationAggregator(
+            WebClient.Builder webClientBuilder,
+            @Value("${googolplex-theater.federation-sites}") List<String> federationSites,
+            @Value("${googolplex-theater.federation-stale-after}") Duration staleAfter,
+            @Value("${googolplex-theater.federation-retry-interval}") Duration retryInterval) {
+        this.webClient = webClientBuilder.build();
+        this.sites = parseSites(federationSites);
+        this.staleAfter = staleAfter;
+        this.retryInterval = retryInterval;
+        this.nameToSnapshot = new ConcurrentHashMap<>();
+        this.subscriptions = Disposables.composite();
+    }
+
+    record Site(String name, String url) {}
+
+    /**
+     * The latest devices of a site, already sorted by name.
+     *
+     * @param devices the devices, or empty if none were received
+     * @param updated when the devices were received, or null if none were
+     * @param error why the feed was lost, or null if it was not
+     */
+    private record Snapshot(List<DeviceStatus> devices, Instant updated, String error) {}
+
+    /**
+     * Parse sites of the form "name=url". If the name is left out, the host of the url is used. The
+     * names must be unique, since each site's devices are kept under its name.
+     *
+     * @param federationSites the sites
+     * @return the sites sorted by name
+     */
+    static List<Site> parseSites(List<String> federationSites) {
+        List<Site> out = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (String federationSite : federationSites) {
+            String value = federationSite.trim();
+            if (value.isEmpty()) {
+                continue;
+            }
+            int index = value.indexOf('=');
+            String url = index < 0 ? value : value.substring(index + 1).trim();
+            String name = index < 0 ? URI.create(url).getHost() : value.substring(0, index).trim();
+            if (name == null || name.isEmpty()) {
+                throw new IllegalArgumentException("Invalid federation site: " + federationSite);
+            }
+            if (!names.add(name)) {
+                throw new IllegalArgumentException("Duplicate federation site: " + name);
+            }
+            // the feed path is appended
+            if (url.endsWith("/")) {
+                url = url.substring(0, url.length() - 1);
+            }
+            out.add(new Site(name, url));
+        }
+        out.sort(Comparator.comparing(Site::name));
+        return Collections.unmodifiableList(out);
+    }
+
+    @PostConstruct
+    public void start() {
+        for (Site site : sites) {
+            log.info("Following site '{}' at {}", site.name, site.url);
+            nameToSnapshot.put(site.name, new Snapshot(List.of(), null, null));
+            subscriptions.add(follow(site)
+                    .doOnNext(devices -> update(site, devices))
+                    .subscribe());
+        }
+    }
+
+    private Flux<List<DeviceStatus>> follow(Site site) {
+        return webClient
+                .get()
+                .uri(site.url + "/api/feed")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .retrieve()
+                .bodyToFlux(TYPE)
+                .timeout(staleAfter)
+                .mapNotNull(ServerSentEvent::data)
+                .doOnError(e -> {
+                    log.warn("FEED_LOST '{}': {}", site.name, e.toString());
+                    nameToSnapshot.computeIfPresent(site.name, (key, snapshot) ->
+                            new Snapshot(snapshot.devices, snapshot.updated, e.toString()));
+                })
+                // a feed which ends cleanly, such as on a restart of the site, is also followed again
+                .repeatWhen(completed -> completed.delayElements(retryInterval))
+                .retryWhen(Retry.fixedDelay(Long.MAX_VALUE, retryInterval));
+    }
+
+    private void update(Site site, List<DeviceStatus> devices) {
+        List<DeviceStatus> sorted = new ArrayList<>(devices);
+        sorted.sort(Comparator.comparing(DeviceStatus::getName));
+        nameToSnapshot.put(site.name, new Snapshot(Collections.unmodifiableList(sorted), Instant.now(), null));
+    }
+
+    /**
+     * @return whether any sites are configured
+     */
+    public boolean isEnabled() {
+        return !sites.isEmpty();
+    }
+
+    /**
+     * Merge the latest snapshots of the sites. The sites and their devices are kept sorted, so this
+     * only concatenates them.
+     *
+     * @return the devices of all of the sites
+     */
+    public FederatedStatus getStatus() {
+        Instant now = Instant.now();
+        List<FederatedStatus.Site> outSites = new ArrayList<>(sites.size());
+        List<FederatedStatus.Device> outDevices = new ArrayList<>();
+        for (Site site : sites) {
+            Snapshot snapshot = nameToSnapshot.get(site.name);
+            if (snapshot == null) {
+                continue;
+            }
+            boolean stale = snapshot.updated == null
+                    || Duration.between(snapshot.updated, now).compareTo(staleAfter) > 0;
+            outSites.add(FederatedStatus.Site.builder()
+                    .name(site.name)
+                    .url(site.url)
+                    .updated(snapshot.updated)
+                    .stale(stale)
+                    .error(snapshot.error)
+                    .devices(snapshot.devices.size())
+                    .build());
+            for (DeviceStatus device : snapshot.devices) {
+                outDevices.add(FederatedStatus.Device.builder()
+                        .site(site.name)
+                        .stale(stale)
+                        .status(device)
+                        .build());
+            }
+        }
+        return FederatedStatus.builder()
+                .generated(now)
+                .sites(outSites)
+                .devices(outDevices)
+                .build();
+    }
+
+    @Override
+    public void close() {
+        subscriptions.dispose();
+    }
+}
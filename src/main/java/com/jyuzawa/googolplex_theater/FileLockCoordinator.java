@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * This class coordinates instances which share a directory, such as instances on the same host or
+ * with a common network mount. The leases are kept in a single file, which is only read and written
+ * while holding an exclusive lock on it, so the instances see a consistent view. Expired leases are
+ * dropped by whichever instance renews next.
+ *
+ * @author jyuzawa
+ */
+@Slf4j
+public final class FileLockCoordinator implements ClusterCoordinator {
+    /** File locks are held by the whole process, so instances in the same process also take this. */
+    private static final Map<Path, Object> LOCAL_LOCKS = new ConcurrentHashMap<>();
+
+    private static final TypeReference<TreeMap<String, Lease>> TYPE = new TypeReference<>() {};
+
+    private final Path path;
+    private final String memberId;
+    private final Duration leaseDuration;
+
+    public FileLockCoordinator(Path directory, String memberId, Duration leaseDuration) throws IOException {
+        Files.createDirectories(directory);
+        this.path = directory.resolve("members.json").toAbsolutePath();
+        this.memberId = memberId;
+        this.leaseDuration = leaseDuration;
+    }
+
+    /**
+     * The lease of an instance, in milliseconds since the epoch, since the instances may be in
+     * different processes.
+     */
+    record Lease(long joined, long expires) {}
+
+    @Override
+    public List<String> renew() throws IOException {
+        return update(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        update(false);
+    }
+
+    private List<String> update(boolean join) throws IOException {
+        Object localLock = LOCAL_LOCKS.computeIfAbsent(path, key -> new Object());
+        synchronized (localLock) {
+            try (FileChannel channel = FileChannel.open(
+                            path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+                    FileLock lock = channel.lock()) {
+                Map<String, Lease> leases = read(channel);
+                long now = System.currentTimeMillis();
+                leases.values().removeIf(lease -> lease.expires <= now);
+                if (join) {
+                    Lease lease = leases.get(memberId);
+                    long joined = lease == null ? now : lease.joined;
+                    leases.put(memberId, new Lease(joined, now + leaseDuration.toMillis()));
+                } else {
+                    leases.remove(memberId);
+                }
+                byte[] bytes = MapperUtil.MAPPER.writeValueAsBytes(leases);
+                channel.truncate(0);
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, buffer.position());
+                }
+                channel.force(false);
+                List<Map.Entry<String, Lease>> entries = new ArrayList<>(leases.entrySet());
+                entries.sort(Comparator.comparingLong((Map.Entry<String, Lease> entry) -> entry.getValue().joined)
+                        .thenComparing(Map.Entry::getKey));
+                List<String> out = new ArrayList<>(entries.size());
+                for (Map.Entry<String, Lease> entry : entries) {
+                    out.add(entry.getKey());
+                }
+                return Collections.unmodifiableList(out);
+            }
+        }
+    }
+
+    private static Map<String, Lease> read(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size == 0) {
+            return new TreeMap<>();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(size));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                break;
+            }
+        }
+        try {
+            return MapperUtil.MAPPER.readValue(buffer.array(), 0, buffer.position(), TYPE);
+        } catch (JsonProcessingException e) {
+            // the leases are renewed often, so they can be rebuilt from scratch
+            log.warn("Discarding unreadable cluster members file", e);
+            return new TreeMap<>();
+        }
+    }
+}
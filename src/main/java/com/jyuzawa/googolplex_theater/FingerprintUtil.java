@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Provides stable content hashes of JSON trees. The hash does not depend on the order of the fields
+ * in objects, so it is the same for equivalent settings regardless of how they were written.
+ *
+ * @author jyuzawa
+ */
+public final class FingerprintUtil {
+    /** The number of bytes of the digest to keep. */
+    private static final int LENGTH = 16;
+
+    private FingerprintUtil() {}
+
+    /**
+     * Compute a 128-bit fingerprint of the tree.
+     *
+     * @param node the tree, which may be null
+     * @return a hex string
+     */
+    public static String fingerprint(JsonNode node) {
+        MessageDigest digest = newDigest();
+        update(digest, node);
+        return HexFormat.of().formatHex(digest.digest(), 0, LENGTH);
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void update(MessageDigest digest, JsonNode node) {
+        if (node == null) {
+            digest.update((byte) 'z');
+            return;
+        }
+        switch (node.getNodeType()) {
+            case OBJECT -> {
+                digest.update((byte) '{');
+                List<String> fieldNames = new ArrayList<>(node.size());
+                Iterator<String> iterator = node.fieldNames();
+                while (iterator.hasNext()) {
+                    fieldNames.add(iterator.next());
+                }
+                Collections.sort(fieldNames);
+                for (String fieldName : fieldNames) {
+                    update(digest, fieldName);
+                    update(digest, node.get(fieldName));
+                }
+                digest.update((byte) '}');
+            }
+            case ARRAY -> {
+                digest.update((byte) '[');
+                for (JsonNode child : node) {
+                    update(digest, child);
+                }
+                digest.update((byte) ']');
+            }
+            case STRING -> {
+                digest.update((byte) 's');
+                update(digest, node.textValue());
+            }
+            case NUMBER -> {
+                digest.update((byte) 'n');
+                update(digest, node.asText());
+            }
+            case BOOLEAN -> digest.update((byte) (node.booleanValue() ? 't' : 'f'));
+            case NULL, MISSING -> digest.update((byte) 'z');
+            default -> {
+                digest.update((byte) 'o');
+                update(digest, node.asText());
+            }
+        }
+    }
+
+    static void update(MessageDigest digest, String value) {
+        // the length prefix keeps adjacent strings from being ambiguous
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        digest.update(ByteBuffer.allocate(4).putInt(bytes.length).flip());
+        digest.update(bytes);
+    }
+}
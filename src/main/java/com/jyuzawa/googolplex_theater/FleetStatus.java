@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import java.time.Instant;
+import java.util.List;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * This class is the aggregated answer of the devices to a status query. Devices which did not answer
+ * before the deadline are included, so the report is complete even if the answers are not.
+ *
+ * @author jyuzawa
+ */
+@Value
+@Builder
+public final class FleetStatus {
+    Instant queried;
+    long elapsedMillis;
+    int answered;
+    List<Device> devices;
+
+    public enum Result {
+        /** The device answered in time. */
+        ANSWERED,
+        /** The device did not answer before the deadline. */
+        TIMEOUT,
+        /** The query failed, likely because the connection was lost. */
+        ERROR,
+        /** There is no connection to the device to query. */
+        DISCONNECTED
+    }
+
+    @Value
+    @Builder
+    public static final class Device {
+        String name;
+        Result result;
+        Long latencyMillis;
+        JsonNode status;
+    }
+}
@@ -4,51 +4,67 @@
  */
 package com.jyuzawa.googolplex_theater;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.util.RawValue;
 import com.jyuzawa.googolplex_theater.DeviceConfig.DeviceInfo;
 import com.jyuzawa.googolplex_theater.protobuf.Wire.CastMessage;
 import com.jyuzawa.googolplex_theater.protobuf.Wire.CastMessage.PayloadType;
 import com.jyuzawa.googolplex_theater.protobuf.Wire.CastMessage.ProtocolVersion;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelOption;
-import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
-import io.netty.handler.codec.LengthFieldPrepender;
-import io.netty.handler.codec.protobuf.ProtobufDecoder;
-import io.netty.handler.codec.protobuf.ProtobufEncoder;
+import io.netty.channel.EventLoop;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.IntFunction;
 import java.util.regex.Pattern;
 import javax.net.ssl.SSLException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
 import reactor.netty.Connection;
+import reactor.netty.resources.LoopResources;
 import reactor.netty.tcp.TcpClient;
 import reactor.util.retry.RetrySpec;
 
 /**
  * This class handles messages from the device and prepares proper responses. The lifecycle is very
- * simple. Once the connection is established, the controller does not send additional messages.
- * Theoretically it could, but for simplicity of lifecycle management, we do not. If the controller
- * wants to do something after the connection is established, it will close the connection and start
- * anew. Recall that any close we trigger in this handler will cause the controller to reconnect.
+ * simple. Once the connection is established, the controller launches the receiver application and
+ * pushes the settings to it. Both of these requests are acknowledged by the device, and they are
+ * retried if the acknowledgement does not arrive in time. If the receiver application goes down, it
+ * is launched again on the same connection a few times. If the controller wants to do something
+ * else after the connection is established, it will close the connection and start anew. Recall that
+ * any close we trigger in this handler will cause the controller to reconnect.
  *
  * @author jyuzawa
  */
 @Slf4j
 @Component
-public class GoogolplexClient {
+public class GoogolplexClient implements Closeable {
     private static final Pattern APP_ID_PATTERN = Pattern.compile("^[A-Z0-9]+$");
 
     /**
@@ -66,38 +82,163 @@ public class GoogolplexClient {
     public static final String NAMESPACE_HEARTBEAT = "urn:x-cast:com.google.cast.tp.heartbeat";
     public static final String NAMESPACE_RECEIVER = "urn:x-cast:com.google.cast.receiver";
 
+    static final int DEFAULT_MAX_FRAME_LENGTH = 1048576;
+
+    /** Our receiver application sends this to report which settings it has loaded. */
+    static final String TYPE_LOADED = "LOADED";
+
+    static final String TYPE_GET_STATUS = "GET_STATUS";
+    static final String TYPE_BROADCAST = "BROADCAST";
+    static final String TYPE_TIME = "TIME";
+    static final String TYPE_STAGE = "STAGE";
+    static final String TYPE_COMMIT = "COMMIT";
+
+    /** The number of time exchanges used to estimate the clock offset of a device. */
+    private static final int CLOCK_SAMPLES = 5;
+
+    static final String METRIC_REQUESTS = "googolplex.requests";
+    static final String METRIC_RENDER = "googolplex.settings.render";
+    static final String METRIC_CONFIG_TO_PIXELS = "googolplex.settings.config.to.pixels";
+
     private static final Map<String, Object> CONNECT_MESSAGE = Map.of("type", "CONNECT");
+    private static final Map<String, Object> CLOSE_MESSAGE = Map.of("type", "CLOSE");
     private static final Map<String, Object> PING_MESSAGE = Map.of("type", "PING");
+    private static final String TYPE_PONG = "PONG";
 
     private final String appId;
-    private final Duration heartbeatInterval;
-    private final Duration heartbeatTimeout;
+    private final HeartbeatPolicy heartbeatPolicy;
     private final Duration retryInterval;
+    private final ConnectionAdmission admission;
+    private final Duration requestTimeout;
+    private final int requestRetries;
+    private final int relaunchAttempts;
+    private final Duration relaunchInterval;
+    private final Timer launchTimer;
+    private final Timer settingsTimer;
+    private final PayloadEncoding customEncoding;
+    private final int maxFrameLength;
+    private final boolean deviceHistograms;
+    private final LoopResources loopResources;
+    private final ByteBufAllocator allocator;
     private final TcpClient bootstrap;
+    private final TcpClient probeBootstrap;
+    private final TlsSessionStats tlsSessionStats;
+    private final MeterRegistry meterRegistry;
 
     @Autowired
-    public GoogolplexClient(
-            @Value("${googolplex-theater.app-id}") String appId,
-            @Value("${googolplex-theater.heartbeat-interval}") Duration heartbeatInterval,
-            @Value("${googolplex-theater.heartbeat-timeout}") Duration heartbeatTimeout,
-            @Value("${googolplex-theater.retry-interval}") Duration retryInterval)
+    public GoogolplexClient(ClientProperties properties, HeartbeatProperties heartbeat, MeterRegistry meterRegistry)
             throws SSLException {
-        this.appId = appId;
+        this.appId = properties.appId();
         if (!APP_ID_PATTERN.matcher(appId).find()) {
             throw new IllegalArgumentException("Invalid cast app-id, must be " + APP_ID_PATTERN.pattern());
         }
-        this.heartbeatInterval = heartbeatInterval;
-        this.heartbeatTimeout = heartbeatTimeout;
-        this.retryInterval = retryInterval;
+        this.heartbeatPolicy = new HeartbeatPolicy(
+                heartbeat.heartbeatInterval(),
+                heartbeat.heartbeatMaxInterval(),
+                heartbeat.heartbeatTimeout(),
+                heartbeat.adaptiveHeartbeat());
+        this.retryInterval = properties.retryInterval();
+        this.requestTimeout = properties.requestTimeout();
+        this.requestRetries = properties.requestRetries();
+        this.relaunchAttempts = properties.relaunchAttempts();
+        this.relaunchInterval = properties.relaunchInterval();
+        this.admission = new ConnectionAdmission(properties.maxConcurrentConnects());
+        this.meterRegistry = meterRegistry;
+        this.launchTimer = requestTimer(meterRegistry, "LAUNCH");
+        this.settingsTimer = requestTimer(meterRegistry, "SETTINGS");
+        this.customEncoding = PayloadEncoding.of(properties.customEncoding());
+        this.maxFrameLength = Math.toIntExact(properties.maxFrameLength().toBytes());
+        this.deviceHistograms = properties.deviceHistograms();
 
+        /*
+         * the client session cache is keyed by the device's address, so reconnects to a device can resume the prior
+         * session and skip the key exchange if the device allows it.
+         */
         SslContext sslContext = SslContextBuilder.forClient()
                 .trustManager(InsecureTrustManagerFactory.INSTANCE)
+                .sessionCacheSize(properties.tlsSessionCacheSize())
+                .sessionTimeout(properties.tlsSessionTimeout().toSeconds())
                 .build();
+        this.tlsSessionStats = new TlsSessionStats(meterRegistry);
         log.info("Using cast application id: {}", appId);
+        /*
+         * the device connections get their own event loops, so they do not compete with the web server. the native
+         * transport is used if it is available for the platform.
+         */
+        int threads = properties.eventLoopThreads() > 0
+                ? properties.eventLoopThreads()
+                : LoopResources.DEFAULT_IO_WORKER_COUNT;
+        boolean preferNativeTransport = properties.preferNativeTransport();
+        this.loopResources = LoopResources.create("cast", threads, true);
+        log.info("Using {} cast event loop threads, native transport preferred: {}", threads, preferNativeTransport);
+        this.allocator = newAllocator(
+                properties.pooledDirectBuffers(), properties.bufferArenas(), properties.bufferChunkSize());
+        TcpClient baseBootstrap = TcpClient.create()
+                .runOn(loopResources, preferNativeTransport)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 1000)
+                .option(ChannelOption.ALLOCATOR, allocator);
         // configure the socket client
-        this.bootstrap = TcpClient.create()
-                .secure(spec -> spec.sslContext(sslContext))
-                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 1000);
+        this.bootstrap = baseBootstrap.secure(spec -> spec.sslContext(sslContext));
+        // the probe only checks that the port is open, so TLS is not needed
+        this.probeBootstrap = baseBootstrap;
+    }
+
+    private static Timer requestTimer(MeterRegistry meterRegistry, String type) {
+        return Timer.builder(METRIC_REQUESTS)
+                .description("Time until a request is acknowledged by the device")
+                .tag("type", type)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Create the allocator for the device connections. The defaults of Netty are sized for busy
+     * servers, so small hosts may want fewer arenas with smaller chunks. Netty's shared pool is reused
+     * when nothing is tuned, so its arenas are not duplicated.
+     *
+     * @param pooled whether to pool the buffers
+     * @param arenas the number of arenas, or zero for the default
+     * @param chunkSize the size of the chunks allocated by the arenas, or zero for the default
+     * @return an allocator which prefers direct buffers
+     */
+    static ByteBufAllocator newAllocator(boolean pooled, int arenas, DataSize chunkSize) {
+        if (!pooled) {
+            return UnpooledByteBufAllocator.DEFAULT;
+        }
+        if (arenas <= 0 && chunkSize.toBytes() <= 0) {
+            return PooledByteBufAllocator.DEFAULT;
+        }
+        int pageSize = PooledByteBufAllocator.defaultPageSize();
+        int maxOrder = PooledByteBufAllocator.defaultMaxOrder();
+        if (chunkSize.toBytes() > 0) {
+            // the chunk size is the page size times a power of two
+            long pages = Math.max(1, chunkSize.toBytes() / pageSize);
+            maxOrder = 63 - Long.numberOfLeadingZeros(pages);
+        }
+        int heapArenas = arenas > 0 ? arenas : PooledByteBufAllocator.defaultNumHeapArena();
+        int directArenas = arenas > 0 ? arenas : PooledByteBufAllocator.defaultNumDirectArena();
+        return new PooledByteBufAllocator(
+                true,
+                heapArenas,
+                directArenas,
+                pageSize,
+                maxOrder,
+                PooledByteBufAllocator.defaultSmallCacheSize(),
+                PooledByteBufAllocator.defaultNormalCacheSize(),
+                PooledByteBufAllocator.defaultUseCacheForAllThreads());
+    }
+
+    private Timer deviceTimer(String metric, String description, String name) {
+        Timer.Builder builder = Timer.builder(metric).description(description).tag("device", name);
+        if (deviceHistograms) {
+            // the histograms take a few kilobytes for each device
+            builder = builder.publishPercentileHistogram();
+        }
+        return builder.register(meterRegistry);
+    }
+
+    @Override
+    public void close() {
+        loopResources.disposeLater().block();
     }
 
     /**
@@ -111,180 +252,740 @@ public class GoogolplexClient {
      * @throws IOException when JSON serialization fails
      */
     static CastMessage generateMessage(String namespace, String senderId, String destinationId, Object payload) {
+        CastMessage.Builder out = newMessage(namespace, senderId, destinationId);
+        try {
+            out.setPayloadUtf8(MapperUtil.MAPPER.writeValueAsString(payload));
+        } catch (IOException e) {
+            throw new GoogolplexClientException("EncodingException", e);
+        }
+        return out.build();
+    }
+
+    private static CastMessage.Builder newMessage(String namespace, String senderId, String destinationId) {
         CastMessage.Builder out = CastMessage.newBuilder();
         out.setDestinationId(destinationId);
         out.setSourceId(senderId);
         out.setNamespace(namespace);
         out.setProtocolVersion(ProtocolVersion.CASTV2_1_0);
         out.setPayloadType(PayloadType.STRING);
+        return out;
+    }
+
+    /**
+     * Serialize a broadcast for our receiver application once, so the same bytes can be sent to every
+     * recipient. The receiver shows the broadcast settings until it is sent its own settings again.
+     *
+     * @param settings the settings to show
+     * @return the serialized payload, which the caller must release
+     */
+    ByteBuf encodeBroadcast(JsonNode settings) {
+        Map<String, Object> custom = new HashMap<>();
+        custom.put("type", TYPE_BROADCAST);
+        custom.put("settings", settings);
         try {
-            out.setPayloadUtf8(MapperUtil.MAPPER.writeValueAsString(payload));
+            return CastMessageCodec.encodePayload(
+                    allocator, MapperUtil.MAPPER.writeValueAsString(customEncoding.wrap(custom)));
         } catch (IOException e) {
             throw new GoogolplexClientException("EncodingException", e);
         }
-        return out.build();
     }
 
-    public Mono<Void> connect(InetSocketAddress address, DeviceInfo deviceInfo, AtomicReference<Instant> birth) {
-        return bootstrap
+    TlsSessionStats getTlsSessionStats() {
+        return tlsSessionStats;
+    }
+
+    public Mono<Void> connect(InetSocketAddress address, DeviceInfo deviceInfo, ChannelState state) {
+        int priority = deviceInfo.getPriority();
+        // the TLS handshakes are the costly part, so those are what is throttled
+        Mono<Connection> attempt = Mono.defer(() -> {
+            long connectMillis = System.currentTimeMillis();
+            return bootstrap
+                    .remoteAddress(() -> address)
+                    .connect()
+                    .doOnNext(conn -> tlsSessionStats.record(conn, connectMillis));
+        });
+        return admission
+                .admit(priority, attempt)
+                .flatMap(conn -> new GoogolplexConnection(conn, deviceInfo, state).handle())
+                .retryWhen(RetrySpec.backoff(Long.MAX_VALUE, getRetryInterval(retryInterval, priority))
+                        .doBeforeRetry(err -> {
+                            log.warn("ERROR " + deviceInfo.getName(), err.failure());
+                        }));
+    }
+
+    /**
+     * Scale the minimum retry backoff by the priority of the device, so more important devices retry
+     * sooner and less important devices yield to them.
+     *
+     * @param retryInterval the backoff for the default priority
+     * @param priority the priority of the device
+     * @return the backoff for the device
+     */
+    static Duration getRetryInterval(Duration retryInterval, int priority) {
+        if (priority > 0) {
+            return retryInterval.dividedBy(priority + 1L);
+        }
+        return retryInterval.multipliedBy(1L - priority);
+    }
+
+    /**
+     * Check whether the device is accepting connections. This is much cheaper than a full connection
+     * since there is no TLS handshake.
+     *
+     * @param address the device's address
+     * @return whether a TCP connection could be opened
+     */
+    public Mono<Boolean> probe(InetSocketAddress address) {
+        return probeBootstrap
                 .remoteAddress(() -> address)
                 .connect()
-                .flatMap(conn -> new GoogolplexConnection(conn, deviceInfo, birth).handle())
-                .retryWhen(RetrySpec.backoff(Long.MAX_VALUE, retryInterval).doBeforeRetry(err -> {
-                    log.warn("ERROR " + deviceInfo.getName(), err.failure());
-                }));
+                .map(conn -> {
+                    conn.dispose();
+                    return true;
+                })
+                .onErrorReturn(false);
+    }
+
+    private record ClockSample(long roundTripMillis, long offsetMillis) {}
+
+    private enum Phase {
+        /** The handler is not yet installed. */
+        CONNECTING,
+        /** The receiver application was requested, but is not yet up, possibly again. */
+        LAUNCHING,
+        /** The receiver application is up, and it is sent heartbeats. */
+        UP,
+        /** The connection is no longer usable. */
+        CLOSED
     }
 
-    private final class GoogolplexConnection {
+    /**
+     * A single connection to a device, which is exposed through the {@link ChannelState} while open.
+     * The messages from the device are handled by this state machine directly on the event loop, and
+     * the heartbeats are scheduled there as well. The steady traffic of a connection therefore does
+     * not involve any reactive operators, which are only used for requests which await an answer.
+     */
+    final class GoogolplexConnection extends ChannelInboundHandlerAdapter {
         private final Connection conn;
         private final DeviceInfo deviceInfo;
-        private final AtomicReference<Instant> birth;
+        private final ChannelState state;
         private final String name;
         private final String senderId;
-        private final AtomicInteger requestId;
-        private final AtomicReference<Instant> lastHeartbeat;
-        private final AtomicReference<String> sessionReceiverId;
+        private final PendingRequests pendingRequests;
+        private final Disposable.Composite tasks;
+        private final Runnable heartbeatTask;
+        private volatile String sessionReceiverId;
+        // the remaining fields are only accessed from the event loop
+        private MonoSink<Void> sink;
+        private ChannelHandlerContext ctx;
+        private Phase phase;
+        private ByteBuf heartbeatFrame;
+        private ScheduledFuture<?> heartbeatFuture;
+        private Disposable.Composite sessionTasks;
+        private boolean relaunchPending;
+        private int relaunches;
+        private long upNanos;
+        private Duration heartbeatInterval;
+        private long lastHeartbeatNanos;
+        private long lastPingNanos;
+        private boolean pinged;
+        private boolean lastPingStable;
 
-        private GoogolplexConnection(Connection conn, DeviceInfo deviceInfo, AtomicReference<Instant> birth) {
+        private GoogolplexConnection(Connection conn, DeviceInfo deviceInfo, ChannelState state) {
             this.conn = conn;
-            this.birth = birth;
+            this.state = state;
             this.deviceInfo = deviceInfo;
             this.name = deviceInfo.getName();
             this.senderId = "sender-" + ThreadLocalRandom.current().nextInt();
-            this.requestId = new AtomicInteger();
-            this.lastHeartbeat = new AtomicReference<>(Instant.now());
-            this.sessionReceiverId = new AtomicReference<>();
+            this.pendingRequests = new PendingRequests();
+            this.tasks = Disposables.composite();
+            this.sessionTasks = Disposables.composite();
+            tasks.add(sessionTasks);
+            this.heartbeatTask = this::heartbeat;
+            this.phase = Phase.CONNECTING;
         }
 
+        /**
+         * Install this handler on the connection.
+         *
+         * @return a signal which fails once the connection is no longer usable
+         */
         private Mono<Void> handle() {
             log.info("CONNECT '{}'", name);
-            conn.addHandlerLast("frameDecoder", new LengthFieldBasedFrameDecoder(1048576, 0, 4, 0, 4));
-            conn.addHandlerLast("protobufDecoder", new ProtobufDecoder(CastMessage.getDefaultInstance()));
-            conn.addHandlerLast("frameEncoder", new LengthFieldPrepender(4));
-            conn.addHandlerLast("protobufEncoder", new ProtobufEncoder());
-            return start().then(conn.inbound()
-                            .receiveObject()
-                            .cast(CastMessage.class)
-                            .flatMap(this::handle)
-                            .then())
+            state.setConnection(this);
+            return Mono.<Void>create(sink -> {
+                        this.sink = sink;
+                        sink.onDispose(() -> {
+                            EventLoop eventLoop = conn.channel().eventLoop();
+                            if (eventLoop.inEventLoop()) {
+                                close();
+                            } else {
+                                eventLoop.execute(this::close);
+                            }
+                        });
+                        conn.addHandlerLast("castMessageCodec", new CastMessageCodec(maxFrameLength, this::accept));
+                        conn.addHandlerLast("castConnection", this);
+                        /*
+                         * the messages are consumed by this handler, so nothing reaches the inbound stream. it still
+                         * needs a subscriber, otherwise the connection does not read.
+                         */
+                        tasks.add(conn.inbound().receiveObject().subscribe(null, this::fail));
+                    })
                     .doFinally(sig -> {
                         log.info("DISCONNECT '{}'", name);
-                        birth.set(null);
+                        state.setBirth(null);
+                        if (state.getConnection() == this) {
+                            state.setConnection(null);
+                        }
                         conn.dispose();
-                    })
-                    .switchIfEmpty(Mono.error(new GoogolplexClientException("ConnectionClosed")));
+                    });
         }
 
-        private Mono<Void> start() {
+        /**
+         * Terminate the connection with an error, which is retried by the caller.
+         *
+         * @param e the reason
+         */
+        private void fail(Throwable e) {
+            sink.error(e);
+        }
+
+        private void close() {
+            phase = Phase.CLOSED;
+            tasks.dispose();
+            if (heartbeatFuture != null) {
+                heartbeatFuture.cancel(false);
+            }
+            if (heartbeatFrame != null) {
+                heartbeatFrame.release();
+                heartbeatFrame = null;
+            }
+        }
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) {
+            this.ctx = ctx;
+            this.lastHeartbeatNanos = System.nanoTime();
+            if (phase == Phase.CLOSED) {
+                // the connection was cancelled before the handler was installed
+                return;
+            }
+            if (!ctx.channel().isActive()) {
+                fail(new GoogolplexClientException("ConnectionClosed"));
+                return;
+            }
+            start();
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            if (!(msg instanceof CastMessage castMessage)) {
+                ctx.fireChannelRead(msg);
+                return;
+            }
+            if (phase == Phase.CLOSED) {
+                return;
+            }
+            try {
+                handle(castMessage);
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            fail(new GoogolplexClientException("ConnectionClosed"));
+            ctx.fireChannelInactive();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            fail(cause);
+        }
+
+        private void start() {
+            phase = Phase.LAUNCHING;
             // initial connect
             CastMessage initialConnectMessage =
                     generateMessage(NAMESPACE_CONNECTION, senderId, DEFAULT_RECEIVER_ID, CONNECT_MESSAGE);
+            ctx.writeAndFlush(initialConnectMessage, ctx.voidPromise());
+            launch();
+        }
 
-            // launch
-            Map<String, Object> launch = new HashMap<>();
-            launch.put("type", "LAUNCH");
-            launch.put("appId", appId);
-            launch.put("requestId", requestId.getAndIncrement());
-            CastMessage launchMessage = generateMessage(NAMESPACE_RECEIVER, senderId, DEFAULT_RECEIVER_ID, launch);
+        private void launch() {
+            relaunchPending = false;
+            if (phase != Phase.LAUNCHING) {
+                return;
+            }
+            /*
+             * launch, which the device acknowledges with a receiver status. a slow device may still be launching
+             * when a retry arrives, which would start the application over, so the launch is sent once and given
+             * as long as all of the attempts of a retried request.
+             */
+            Duration launchTimeout = requestTimeout.multipliedBy(requestRetries + 1L);
+            Mono<JsonNode> launch = request(launchTimer, launchTimeout, 0, requestId -> {
+                Map<String, Object> payload = new HashMap<>();
+                payload.put("type", "LAUNCH");
+                payload.put("appId", appId);
+                payload.put("requestId", requestId);
+                return generateMessage(NAMESPACE_RECEIVER, senderId, DEFAULT_RECEIVER_ID, payload);
+            });
+            sessionTasks.add(
+                    launch.onErrorMap(TimeoutException.class, e -> new GoogolplexClientException("LaunchTimeout", e))
+                            .subscribe(null, this::fail));
+        }
+
+        /**
+         * Launch the receiver application again after it went down. The connection itself is still fine,
+         * so this is much quicker than reconnecting. The attempts are limited, so an application which
+         * keeps failing falls back to a full reconnect.
+         *
+         * @param reason why the application is down, which is raised if no attempts remain
+         */
+        private void relaunch(String reason) {
+            if (relaunchPending) {
+                // a relaunch is already on the way
+                return;
+            }
+            if (phase == Phase.UP && System.nanoTime() - upNanos > retryInterval.toNanos()) {
+                // the application stayed up for a while, so this is not a crash loop
+                relaunches = 0;
+            }
+            if (relaunches >= relaunchAttempts) {
+                throw new GoogolplexClientException(reason);
+            }
+            relaunches++;
+            log.info("RELAUNCH '{}' {}", name, relaunches);
+            phase = Phase.LAUNCHING;
+            relaunchPending = true;
+            sessionReceiverId = null;
+            state.setBirth(null);
+            // the application was restarted, so nothing is loaded
+            state.setLoadedFingerprint(null);
+            // abandon any requests to the prior application
+            tasks.remove(sessionTasks);
+            sessionTasks.dispose();
+            sessionTasks = Disposables.composite();
+            tasks.add(sessionTasks);
+            ScheduledFuture<?> launchFuture = ctx.executor()
+                    .schedule(this::launch, relaunchInterval.multipliedBy(relaunches).toNanos(), TimeUnit.NANOSECONDS);
+            sessionTasks.add(() -> launchFuture.cancel(false));
+        }
+
+        /**
+         * Send a request and wait for the device to acknowledge it. Unacknowledged requests are retried
+         * a limited number of times, so only idempotent requests should be retried.
+         *
+         * @param timer records how long the acknowledgement took
+         * @param timeout how long to wait for each attempt
+         * @param retries how many times to resend an unacknowledged request
+         * @param messageFactory generates the request for a given requestId
+         * @return the acknowledgement
+         */
+        private Mono<JsonNode> request(
+                Timer timer, Duration timeout, int retries, IntFunction<CastMessage> messageFactory) {
+            return Mono.defer(() -> {
+                long start = System.nanoTime();
+                return pendingRequests
+                        .request(timeout, retries, requestId -> conn.outbound()
+                                .sendObject(messageFactory.apply(requestId))
+                                .then())
+                        .doOnNext(response -> timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+            });
+        }
+
+        /**
+         * Ask the device for its current status. This is answered by the device itself, so it works
+         * regardless of the state of the receiver application.
+         *
+         * @param timeout how long to wait for the answer
+         * @return the receiver status
+         */
+        Mono<JsonNode> getStatus(Duration timeout) {
+            return pendingRequests.request(timeout, 0, requestId -> {
+                Map<String, Object> payload = new HashMap<>();
+                payload.put("type", TYPE_GET_STATUS);
+                payload.put("requestId", requestId);
+                return conn.outbound()
+                        .sendObject(generateMessage(NAMESPACE_RECEIVER, senderId, DEFAULT_RECEIVER_ID, payload))
+                        .then();
+            });
+        }
 
+        /**
+         * @return whether the receiver application is up
+         */
+        boolean isUp() {
+            return sessionReceiverId != null;
+        }
+
+        /**
+         * Tell our receiver application that this sender is leaving for good, rather than just
+         * reconnecting, so it can quit right away. The connection itself is disposed by the caller.
+         */
+        void leave() {
+            String transportId = sessionReceiverId;
+            if (transportId == null) {
+                return;
+            }
+            ctx.writeAndFlush(
+                    generateMessage(NAMESPACE_CONNECTION, senderId, transportId, CLOSE_MESSAGE), ctx.voidPromise());
+        }
+
+        /**
+         * Send a serialized payload to our receiver application. Only the routing is serialized here, so
+         * the payload can be shared with other connections.
+         *
+         * @param payload a payload from {@link GoogolplexClient#encodeBroadcast(JsonNode)}
+         * @return a completion signal once the message is written
+         */
+        Mono<Void> sendShared(ByteBuf payload) {
+            String transportId = sessionReceiverId;
+            if (transportId == null) {
+                return Mono.error(new GoogolplexClientException("NotConnected"));
+            }
+            CastMessage routing = newMessage(NAMESPACE_CUSTOM, senderId, transportId).build();
             return conn.outbound()
-                    .sendObject(initialConnectMessage)
-                    .then(conn.outbound().sendObject(launchMessage))
+                    .send(Mono.fromCallable(() -> {
+                        ByteBuf frame = CastMessageCodec.frame(conn.channel().alloc(), routing, payload);
+                        // the receiver will no longer be showing its settings
+                        state.setLoadedFingerprint(null);
+                        return frame;
+                    }))
                     .then();
         }
 
-        protected Mono<Void> handle(CastMessage msg) {
-            // do some rudimentary validation
-            if (msg.getProtocolVersion() != ProtocolVersion.CASTV2_1_0 || msg.getPayloadType() != PayloadType.STRING) {
-                log.debug("Invalid message");
-                return Mono.empty();
+        /**
+         * Send a request to our receiver application and wait for its answer.
+         *
+         * @param payload the content of the request, to which the requestId is added
+         * @return the answer
+         */
+        private Mono<JsonNode> customRequest(Map<String, Object> payload) {
+            String transportId = sessionReceiverId;
+            if (transportId == null) {
+                return Mono.error(new GoogolplexClientException("NotConnected"));
             }
-            String sourceId = msg.getSourceId();
-            if (!(sourceId.equals(DEFAULT_RECEIVER_ID) || sourceId.equals(sessionReceiverId.get()))) {
+            return pendingRequests.request(requestTimeout, requestRetries, requestId -> {
+                Map<String, Object> custom = new HashMap<>(payload);
+                custom.put("requestId", requestId);
+                return conn.outbound()
+                        .sendObject(generateMessage(
+                                NAMESPACE_CUSTOM, senderId, transportId, customEncoding.wrap(custom)))
+                        .then();
+            });
+        }
+
+        /**
+         * Estimate how far the clock of the device is ahead of ours. Several samples are taken, and the
+         * one with the shortest round trip is used, since it is the least affected by network delays.
+         *
+         * @return the offset of the device's clock
+         */
+        Mono<Duration> syncClock() {
+            return Flux.range(0, CLOCK_SAMPLES)
+                    .concatMap(i -> Mono.defer(() -> {
+                        long sent = System.currentTimeMillis();
+                        return customRequest(Map.of("type", TYPE_TIME)).map(response -> {
+                            long received = System.currentTimeMillis();
+                            long deviceTime = response.path("time").asLong();
+                            return new ClockSample(received - sent, deviceTime - (sent + received) / 2);
+                        });
+                    }))
+                    .reduce((a, b) -> a.roundTripMillis <= b.roundTripMillis ? a : b)
+                    .map(sample -> {
+                        Duration clockOffset = Duration.ofMillis(sample.offsetMillis);
+                        state.setClockOffset(clockOffset);
+                        return clockOffset;
+                    });
+        }
+
+        /**
+         * Send settings to our receiver application, which holds onto them until they are committed.
+         *
+         * @param stageId identifies the staged settings
+         * @param settings the settings to show later
+         * @return a completion signal once the receiver has the settings
+         */
+        Mono<Void> stage(String stageId, JsonNode settings) {
+            return customRequest(Map.of("type", TYPE_STAGE, "stageId", stageId, "settings", settings))
+                    .then();
+        }
+
+        /**
+         * Have our receiver application show previously staged settings at a certain time.
+         *
+         * @param stageId identifies the staged settings
+         * @param deviceTime when to show the settings, in terms of the device's clock
+         * @return a completion signal once the receiver has scheduled the switch
+         */
+        Mono<Void> commit(String stageId, Instant deviceTime) {
+            // the receiver will no longer be showing its settings
+            state.setLoadedFingerprint(null);
+            return customRequest(Map.of("type", TYPE_COMMIT, "stageId", stageId, "at", deviceTime.toEpochMilli()))
+                    .then();
+        }
+
+        /**
+         * Examine the routing of a message before it is parsed. This avoids decoding the payloads of
+         * messages which would be ignored anyway. Heartbeats are fully handled here, since only their
+         * arrival matters. This runs on the event loop.
+         *
+         * @param namespace the namespace of the message
+         * @param sourceId the sender of the message
+         * @param destinationId the recipient of the message
+         * @return whether the message should be parsed and handled
+         */
+        private boolean accept(String namespace, String sourceId, String destinationId) {
+            if (!(sourceId.equals(DEFAULT_RECEIVER_ID) || sourceId.equals(sessionReceiverId))) {
                 log.debug("Invalid message source");
-                return Mono.empty();
+                return false;
             }
-            String destinationId = msg.getDestinationId();
             if (!(destinationId.equals(senderId) || destinationId.equals("*"))) {
                 log.debug("Invalid message destination");
-                return Mono.empty();
+                return false;
             }
             // handle different namespaces differently
-            String namespace = msg.getNamespace();
-            if (NAMESPACE_HEARTBEAT.equals(namespace)) {
-                lastHeartbeat.set(Instant.now());
-                return Mono.empty();
-            }
-            if (NAMESPACE_CUSTOM.equals(namespace)) {
-                log.info("MESSAGE '{}' {}", name, msg.getPayloadUtf8());
-                return Mono.empty();
+            switch (namespace) {
+                case NAMESPACE_HEARTBEAT:
+                    // any heartbeat shows the device is alive, but only a reply to our ping is a round trip
+                    lastHeartbeatNanos = System.nanoTime();
+                    return lastPingNanos != 0;
+                case NAMESPACE_CUSTOM:
+                case NAMESPACE_RECEIVER:
+                    return true;
+                default:
+                    log.debug("other message");
+                    return false;
             }
-            if (!NAMESPACE_RECEIVER.equals(namespace)) {
-                log.debug("other message");
-                return Mono.empty();
-            }
-            ReceiverResponse receiverPayload;
+        }
+
+        /**
+         * Handle a message from our receiver application.
+         *
+         * @param msg a message in the custom namespace
+         */
+        private void handleCustom(CastMessage msg) {
+            JsonNode payload;
             try {
-                receiverPayload = MapperUtil.MAPPER.readValue(msg.getPayloadUtf8(), ReceiverResponse.class);
+                payload = MapperUtil.MAPPER.readTree(msg.getPayloadUtf8());
             } catch (IOException e) {
-                return Mono.error(e);
+                log.warn("Invalid custom message '{}'", name, e);
+                return;
+            }
+            if (!pendingRequests.complete(payload.path("requestId").asInt(), payload)) {
+                log.info("MESSAGE '{}' {}", name, payload);
+            }
+        }
+
+        /**
+         * Push the settings to our receiver application, which acknowledges them by reporting what it
+         * has loaded. The settings are identified by their fingerprint. If the receiver already reported
+         * that fingerprint as loaded, the settings are omitted, and the receiver keeps its current
+         * content. If that turns out to be wrong, the full settings are pushed.
+         *
+         * @param transportId the destination session
+         * @return a completion signal
+         */
+        private Mono<Void> pushSettings(String transportId) {
+            String fingerprint = deviceInfo.getFingerprint();
+            boolean full = !fingerprint.equals(state.getLoadedFingerprint());
+            // the settings are identified by their fingerprint, so resending them is harmless
+            return request(
+                            settingsTimer,
+                            requestTimeout,
+                            requestRetries,
+                            requestId -> generateSettingsMessage(transportId, requestId, full))
+                    .flatMap(response -> {
+                        LoadedMessage loaded;
+                        try {
+                            loaded = MapperUtil.MAPPER.treeToValue(response, LoadedMessage.class);
+                        } catch (IOException e) {
+                            return Mono.error(e);
+                        }
+                        if (fingerprint.equals(loaded.getFingerprint())) {
+                            log.debug("LOADED '{}' {}ms", name, loaded.getRenderMillis());
+                            state.setLoadedFingerprint(fingerprint);
+                            recordLoaded(loaded);
+                            return Mono.empty();
+                        }
+                        state.setLoadedFingerprint(null);
+                        if (full) {
+                            // the receiver does not track what it has loaded
+                            recordLoaded(loaded);
+                            return Mono.empty();
+                        }
+                        // the receiver has something else loaded, so it needs the full settings
+                        log.info("STALE '{}'", name);
+                        return pushSettings(transportId);
+                    })
+                    .onErrorResume(TimeoutException.class, e -> {
+                        // the receiver may simply predate acknowledgements, so this is not fatal
+                        log.warn("UNACKNOWLEDGED '{}'", name);
+                        state.setLoadedFingerprint(null);
+                        return Mono.empty();
+                    })
+                    .then();
+        }
+
+        /**
+         * Record the timing of settings which the receiver acknowledged. The render time is measured on
+         * the device. The end-to-end latency is measured from when the settings were applied to the
+         * device, which covers connecting and launching too, so it is only recorded the first time.
+         *
+         * @param loaded the acknowledgement
+         */
+        private void recordLoaded(LoadedMessage loaded) {
+            Long renderMillis = loaded.getRenderMillis();
+            if (renderMillis == null) {
+                return;
+            }
+            deviceTimer(METRIC_RENDER, "Time for the receiver to render the settings", name)
+                    .record(renderMillis, TimeUnit.MILLISECONDS);
+            if (state.getDisplayed() == null) {
+                Instant displayed = Instant.now();
+                state.setDisplayed(displayed);
+                deviceTimer(METRIC_CONFIG_TO_PIXELS, "Time from applying the settings to displaying them", name)
+                        .record(Duration.between(state.getCreated(), displayed));
+            }
+        }
+
+        /**
+         * Generate the message which conveys the settings to our receiver application.
+         *
+         * @param transportId the destination session
+         * @param requestId the identifier which the acknowledgement will echo
+         * @param full whether to include the settings
+         * @return a message for the custom namespace
+         */
+        private CastMessage generateSettingsMessage(String transportId, int requestId, boolean full) {
+            Map<String, Object> custom = new HashMap<>();
+            custom.put("name", name);
+            custom.put("fingerprint", deviceInfo.getFingerprint());
+            if (full) {
+                // the settings of many devices are often the same, so their serialized form is shared
+                custom.put("settings", new RawValue(deviceInfo.getSettingsJson()));
+            }
+            custom.put("requestId", requestId);
+            return generateMessage(NAMESPACE_CUSTOM, senderId, transportId, customEncoding.wrap(custom));
+        }
+
+        /**
+         * Take a round trip sample from the reply to our ping. The device also sends its own pings, which
+         * must not be mistaken for the reply.
+         *
+         * @param msg a message in the heartbeat namespace, received while our ping is unanswered
+         */
+        private void handleHeartbeat(CastMessage msg) throws IOException {
+            String type = MapperUtil.MAPPER.readTree(msg.getPayloadUtf8()).path("type").asText();
+            if (lastPingNanos == 0 || !TYPE_PONG.equals(type)) {
+                return;
             }
+            long sampleNanos = lastHeartbeatNanos - lastPingNanos;
+            lastPingNanos = 0;
+            lastPingStable = HeartbeatPolicy.isStable(state, sampleNanos);
+            state.sampleRoundTrip(sampleNanos);
+        }
+
+        private void handle(CastMessage msg) throws IOException {
+            // do some rudimentary validation
+            if (msg.getProtocolVersion() != ProtocolVersion.CASTV2_1_0 || msg.getPayloadType() != PayloadType.STRING) {
+                log.debug("Invalid message");
+                return;
+            }
+            if (NAMESPACE_CUSTOM.equals(msg.getNamespace())) {
+                handleCustom(msg);
+                return;
+            }
+            if (NAMESPACE_HEARTBEAT.equals(msg.getNamespace())) {
+                handleHeartbeat(msg);
+                return;
+            }
+            JsonNode receiverNode = MapperUtil.MAPPER.readTree(msg.getPayloadUtf8());
+            ReceiverResponse receiverPayload = MapperUtil.MAPPER.treeToValue(receiverNode, ReceiverResponse.class);
+            pendingRequests.complete(receiverPayload.getRequestId(), receiverNode);
             if (receiverPayload.getReason() != null) {
                 // the presence of the reason indicates the launch likely failed for some reason
                 log.warn("ERROR '{}' {}", name, msg.getPayloadUtf8());
-                // close to reload connection
-                return Mono.error(new GoogolplexClientException("BadReceiverReason"));
+                relaunch("BadReceiverReason");
+                return;
             }
             if (!receiverPayload.isApplicationStatus()) {
-                return Mono.empty();
+                return;
             }
             if (receiverPayload.isIdleScreen()) {
                 /*
-                 * if the idle screen is back, the receiver app has crashed for some reason, so close which will trigger a
-                 * refresh.
+                 * if the idle screen is back, the receiver app has crashed for some reason, so launch it again on this
+                 * connection.
                  */
                 log.info("DOWN '{}'", name);
-                return Mono.error(new GoogolplexClientException("IdleScreen"));
+                relaunch("IdleScreen");
+                return;
             }
             String transportId = receiverPayload.getApplicationTransportId(appId);
-            if (transportId == null) {
-                return Mono.empty();
+            if (transportId == null || phase != Phase.LAUNCHING) {
+                return;
             }
             /*
              * if transportId is present for our appId, then we can send the settings thru our custom namespace
              */
-            if (sessionReceiverId.getAndSet(transportId) != null) {
-                return Mono.empty();
-            }
+            up(transportId);
+        }
+
+        private void up(String transportId) throws IOException {
+            phase = Phase.UP;
+            upNanos = System.nanoTime();
+            sessionReceiverId = transportId;
             log.info("UP '{}'", name);
-            birth.set(Instant.now());
+            state.setBirth(Instant.now());
             // session connect
-            CastMessage sessionConnectMessage =
-                    generateMessage(NAMESPACE_CONNECTION, senderId, transportId, CONNECT_MESSAGE);
-            // display data custom message
-            Map<String, Object> custom = new HashMap<>();
-            custom.put("name", name);
-            custom.put("settings", deviceInfo.getSettings());
-            custom.put("requestId", requestId.getAndIncrement());
-            CastMessage customMessage = generateMessage(NAMESPACE_CUSTOM, senderId, transportId, custom);
-            CastMessage heartbeatMessage =
-                    generateMessage(NAMESPACE_HEARTBEAT, senderId, DEFAULT_RECEIVER_ID, PING_MESSAGE);
-            return conn.outbound()
-                    .sendObject(sessionConnectMessage)
-                    .then(conn.outbound().sendObject(customMessage))
-                    .then()
-                    .then(Flux.interval(heartbeatInterval)
-                            .flatMap(i -> {
-                                if (lastHeartbeat.get().plus(heartbeatTimeout).isBefore(Instant.now())) {
-                                    /* the last heartbeat occurred too long ago, so close to trigger a reconnect */
-                                    log.warn("EXPIRE '{}'", name);
-                                    return Mono.error(new GoogolplexClientException("HeartbeatTimeout"));
-                                } else {
-                                    // send another heartbeat
-                                    return conn.outbound().sendObject(heartbeatMessage);
-                                }
-                            })
-                            .then());
+            ctx.writeAndFlush(
+                    generateMessage(NAMESPACE_CONNECTION, senderId, transportId, CONNECT_MESSAGE), ctx.voidPromise());
+            if (heartbeatFrame == null) {
+                // the heartbeat never changes, so it is serialized once and the same bytes are sent every time
+                heartbeatFrame = CastMessageCodec.frame(
+                        ctx.alloc(),
+                        generateMessage(NAMESPACE_HEARTBEAT, senderId, DEFAULT_RECEIVER_ID, PING_MESSAGE));
+                lastHeartbeatNanos = upNanos;
+                // the heartbeats go to the device itself, so they continue through any relaunches
+                scheduleHeartbeat();
+            }
+            // the heartbeats must not wait on the acknowledgement of the settings
+            sessionTasks.add(pushSettings(transportId).subscribe(null, this::fail));
+        }
+
+        private void scheduleHeartbeat() {
+            // the interval is looked up before every heartbeat, since it may be adapted along the way
+            Duration interval = heartbeatPolicy.getInterval(state);
+            if (heartbeatInterval != null && !interval.equals(heartbeatInterval)) {
+                log.debug("HEARTBEAT '{}' {}", name, interval);
+            }
+            heartbeatInterval = interval;
+            heartbeatFuture = ctx.executor().schedule(heartbeatTask, interval.toNanos(), TimeUnit.NANOSECONDS);
+        }
+
+        private void heartbeat() {
+            if (phase == Phase.CLOSED) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (now - lastHeartbeatNanos > heartbeatPolicy.getTimeoutNanos(heartbeatInterval)) {
+                /* the last heartbeat occurred too long ago, so close to trigger a reconnect */
+                log.warn("EXPIRE '{}'", name);
+                heartbeatPolicy.reset(state);
+                fail(new GoogolplexClientException("HeartbeatTimeout"));
+                return;
+            }
+            if (pinged) {
+                // the previous heartbeat is still unanswered if its send time was not cleared
+                heartbeatPolicy.record(state, lastPingNanos == 0 && lastPingStable);
+            }
+            // send another heartbeat
+            pinged = true;
+            lastPingNanos = now;
+            ctx.writeAndFlush(heartbeatFrame.retainedDuplicate(), ctx.voidPromise());
+            scheduleHeartbeat();
         }
     }
 }
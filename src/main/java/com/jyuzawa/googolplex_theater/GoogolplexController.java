@@ -4,12 +4,28 @@
  */
 package com.jyuzawa.googolplex_theater;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.jyuzawa.googolplex_theater.DeviceConfig.DeviceInfo;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.ModelAttribute;
+import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 /**
  * This class handles for the web UI.
@@ -21,20 +37,119 @@ import org.springframework.web.bind.annotation.PostMapping;
 public final class GoogolplexController {
 
     private final GoogolplexService service;
+    private final DeviceConfigLoader loader;
+    private final StatusFeed statusFeed;
+    private final FederationAggregator aggregator;
 
     @GetMapping("/")
     public String root(Model model) {
         model.addAttribute("devices", service.getDeviceInfo());
+        model.addAttribute("federated", aggregator.isEnabled());
         return "index";
     }
 
     @PostMapping("/refresh")
     public String refresh(@ModelAttribute RefreshSpec spec, Model model) {
         String name = spec.name;
+        if (spec.tag != null) {
+            service.refreshTagged(spec.tag);
+            model.addAttribute("name", "Devices Tagged " + spec.tag);
+            return "main";
+        }
         service.refresh(name);
         model.addAttribute("name", name == null ? "All Devices" : name);
         return "main";
     }
 
-    public record RefreshSpec(String name) {}
+    @GetMapping("/api/status")
+    @ResponseBody
+    public Mono<FleetStatus> status(@RequestParam(required = false) String tag) {
+        return service.queryStatus(tag);
+    }
+
+    @PostMapping("/api/broadcast")
+    @ResponseBody
+    public Mono<BroadcastResult> broadcast(@RequestBody BroadcastSpec spec) {
+        if (spec.settings == null) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "settings are required"));
+        }
+        return service.broadcast(spec.names, spec.tag, spec.settings);
+    }
+
+    @PostMapping("/api/switch")
+    @ResponseBody
+    public Mono<SwitchResult> scheduleSwitch(@RequestBody SwitchSpec spec) {
+        if (spec.settings == null) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "settings are required"));
+        }
+        return service.scheduleSwitch(spec.names, spec.tag, spec.settings, spec.at);
+    }
+
+    @GetMapping(path = "/api/feed", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @ResponseBody
+    public Flux<ServerSentEvent<List<DeviceStatus>>> feed() {
+        return statusFeed.stream().map(devices -> ServerSentEvent.<List<DeviceStatus>>builder(devices)
+                .event("status")
+                .build());
+    }
+
+    @GetMapping("/federation")
+    public String federation(Model model) {
+        model.addAttribute("federation", aggregator.getStatus());
+        return "federation";
+    }
+
+    @GetMapping("/api/federation")
+    @ResponseBody
+    public FederatedStatus federationStatus() {
+        return aggregator.getStatus();
+    }
+
+    @GetMapping("/api/devices")
+    @ResponseBody
+    public Map<String, Object> devices() {
+        return service.getDeviceConfig().toDeclared();
+    }
+
+    @PutMapping("/api/devices")
+    @ResponseBody
+    public Mono<DeviceConfigDiff> replaceDevices(@RequestBody DeviceConfig config) {
+        if (!hasNames(config.getDevices())) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "device names are required"));
+        }
+        return Mono.fromFuture(service.replaceDeviceConfig(config)).doOnSuccess(this::persist);
+    }
+
+    @PatchMapping("/api/devices")
+    @ResponseBody
+    public Mono<DeviceConfigDiff> patchDevices(@RequestBody DevicePatch patch) {
+        if (patch.devices != null && !hasNames(patch.devices)) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "device names are required"));
+        }
+        return Mono.fromFuture(service.patchDeviceConfig(patch.devices, patch.remove))
+                .doOnSuccess(this::persist);
+    }
+
+    private static boolean hasNames(List<DeviceInfo> devices) {
+        for (DeviceInfo device : devices) {
+            if (device == null || device.getName() == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void persist(DeviceConfigDiff diff) {
+        if (!diff.isEmpty()) {
+            loader.persist();
+        }
+    }
+
+    public record RefreshSpec(String name, String tag) {}
+
+    public record BroadcastSpec(List<String> names, String tag, JsonNode settings) {}
+
+    public record SwitchSpec(List<String> names, String tag, JsonNode settings, Instant at) {}
+
+    public record DevicePatch(List<DeviceInfo> devices, List<String> remove) {}
 }
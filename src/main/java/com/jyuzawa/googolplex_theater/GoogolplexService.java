@@ -4,26 +4,35 @@
  */
 package com.jyuzawa.googolplex_theater;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.jyuzawa.googolplex_theater.DeviceConfig.DeviceInfo;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCounted;
 import java.io.Closeable;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.time.Duration;
 import java.time.Instant;
+import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.TimeoutException;
 import javax.jmdns.ServiceEvent;
 import javax.jmdns.ServiceInfo;
 import javax.jmdns.impl.util.NamedThreadFactory;
@@ -31,6 +40,9 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 /**
  * This class represents the state of the application. All modifications to state occur in the same
@@ -54,21 +66,74 @@ public class GoogolplexService implements Closeable {
 
     private final GoogolplexClient client;
     private final Map<String, DeviceInfo> nameToDeviceInfo;
+    private final Map<String, Set<String>> tagToNames;
+    private volatile DeviceConfig deviceConfig = new DeviceConfig(null, null);
     private final Map<String, InetSocketAddress> nameToAddress;
     private final Map<String, Channel> nameToChannel;
+    private final Map<String, Probe> nameToProbe;
+    private final Map<String, String> serviceNameToName;
     private final ExecutorService executor;
+    private final Duration probeInterval;
+    private final int probeFailures;
+    private final Duration dormantProbeInterval;
+    private final Duration dormantProbeMaxInterval;
+    private final Duration statusDeadline;
+    private final int statusConcurrency;
+    private final Duration switchLead;
+    private final DeviceScheduler scheduler;
+    private volatile String memberId;
+    private volatile ConsistentHashRing shards;
+    private final int clusterRampRate;
+    private final Disposable.Swap ramp;
 
     @Autowired
-    public GoogolplexService(GoogolplexClient client) {
+    public GoogolplexService(GoogolplexClient client, ServiceProperties properties, ClusterProperties cluster) {
         this.client = client;
+        if (properties.probeFailures() < 1) {
+            throw new IllegalArgumentException("Invalid probe-failures, must be positive");
+        }
+        this.probeInterval = properties.probeInterval();
+        this.probeFailures = properties.probeFailures();
+        this.dormantProbeInterval = properties.dormantProbeInterval();
+        this.dormantProbeMaxInterval = properties.dormantProbeMaxInterval();
+        this.statusDeadline = properties.statusDeadline();
+        this.statusConcurrency = properties.statusConcurrency();
+        this.switchLead = properties.switchLead();
         // the state is maintained in these maps
         this.nameToDeviceInfo = new ConcurrentHashMap<>();
+        this.tagToNames = new ConcurrentHashMap<>();
         this.nameToAddress = new ConcurrentHashMap<>();
         this.nameToChannel = new ConcurrentHashMap<>();
+        this.nameToProbe = new ConcurrentHashMap<>();
+        this.serviceNameToName = new ConcurrentHashMap<>();
         this.executor = Executors.newSingleThreadExecutor(new NamedThreadFactory("controller"));
+        this.scheduler = new DeviceScheduler(
+                properties.scheduleJitter(), ZoneId.systemDefault(), executor, this::runSchedule);
+        if (ClusterMode.of(cluster.clusterMode()) != ClusterMode.STANDALONE) {
+            // nothing is owned until the cluster members are known
+            this.shards = ConsistentHashRing.EMPTY;
+        }
+        this.clusterRampRate = cluster.clusterRampRate();
+        this.ramp = Disposables.swap();
     }
 
-    private record Channel(AtomicReference<Instant> birth, Disposable disposable) {}
+    private record Channel(ChannelState state, Disposable disposable) {}
+
+    /**
+     * The outcome of staging settings on a device. The connection is present only if the staging
+     * succeeded, otherwise the result explains why it did not.
+     */
+    private record Staged(
+            String name,
+            ChannelState state,
+            GoogolplexClient.GoogolplexConnection connection,
+            SwitchResult.Result result) {}
+
+    /**
+     * The liveness checks for a device which service discovery reported as removed. Once the failures
+     * reach the threshold, the device is considered dormant and is no longer connected to.
+     */
+    private record Probe(InetSocketAddress address, int failures, Disposable.Swap disposable) {}
 
     /**
      * Load the config and propagate the changes to the any currently connected devices.
@@ -76,27 +141,132 @@ public class GoogolplexService implements Closeable {
      * @param config the settings loaded from the file
      */
     public Future<?> processDeviceConfig(DeviceConfig config) {
-        return executor.submit(() -> {
-            Set<String> namesToRemove = new HashSet<>(nameToDeviceInfo.keySet());
-            for (DeviceInfo deviceInfo : config.getDevices()) {
-                String name = deviceInfo.getName();
-                // mark that we should not remove this device
-                namesToRemove.remove(name);
-                DeviceInfo oldDeviceInfo = nameToDeviceInfo.get(name);
-                // ignore unchanged devices
-                if (!deviceInfo.equals(oldDeviceInfo)) {
-                    log.info("CONFIG_UPDATED '{}'", name);
-                    nameToDeviceInfo.put(name, deviceInfo);
-                    apply(name);
+        return executor.submit(() -> applyDeviceConfig(config));
+    }
+
+    /**
+     * Replace the whole config. The change is applied atomically with respect to any other changes.
+     *
+     * @param config the new config
+     * @return the changes which were made
+     */
+    public CompletableFuture<DeviceConfigDiff> replaceDeviceConfig(DeviceConfig config) {
+        return CompletableFuture.supplyAsync(() -> applyDeviceConfig(config), executor);
+    }
+
+    /**
+     * Add, replace, or remove individual devices in the current config. The change is applied
+     * atomically with respect to any other changes, so concurrent patches are not lost.
+     *
+     * @param devices devices to add, or to replace the devices with the same names
+     * @param removed names of devices to remove
+     * @return the changes which were made
+     */
+    public CompletableFuture<DeviceConfigDiff> patchDeviceConfig(
+            Collection<DeviceInfo> devices, Collection<String> removed) {
+        return CompletableFuture.supplyAsync(
+                () -> applyDeviceConfig(deviceConfig.patch(devices, removed)), executor);
+    }
+
+    /**
+     * @return the most recently applied config
+     */
+    public DeviceConfig getDeviceConfig() {
+        return deviceConfig;
+    }
+
+    private DeviceConfigDiff applyDeviceConfig(DeviceConfig config) {
+        deviceConfig = config;
+        DeviceConfigDiff diff = DeviceConfigDiff.compute(nameToDeviceInfo, config.getDevices());
+        if (diff.isEmpty()) {
+            log.debug("CONFIG_UNCHANGED");
+            return diff;
+        }
+        // unchanged devices are ignored
+        List<DeviceInfo> updated = new ArrayList<>(diff.getAdded());
+        updated.addAll(diff.getChanged());
+        for (DeviceInfo deviceInfo : byPriority(updated)) {
+            String name = deviceInfo.getName();
+            DeviceInfo oldDeviceInfo = nameToDeviceInfo.put(name, deviceInfo);
+            index(oldDeviceInfo, deviceInfo);
+            scheduler.update(name, deviceInfo.getSchedules(), Instant.now());
+            if (oldDeviceInfo != null && oldDeviceInfo.isEquivalent(deviceInfo)) {
+                // only the tags or schedules changed, so the device does not need to be refreshed
+                log.info("CONFIG_RETAINED '{}'", name);
+                continue;
+            }
+            log.info("CONFIG_UPDATED '{}'", name);
+            apply(name);
+        }
+        // remove devices that were missing in the new config
+        for (String name : diff.getRemoved()) {
+            log.info("CONFIG_REMOVED '{}'", name);
+            index(nameToDeviceInfo.remove(name), null);
+            scheduler.update(name, Collections.emptyList(), Instant.now());
+            Channel channel = nameToChannel.get(name);
+            GoogolplexClient.GoogolplexConnection connection = channel == null ? null : channel.state.getConnection();
+            if (connection != null) {
+                // the receiver would otherwise keep showing the settings while it waits for a reconnect
+                connection.leave();
+            }
+            apply(name);
+        }
+        return diff;
+    }
+
+    /**
+     * Update the tag index for a device which changed. This should only be called from the executor.
+     *
+     * @param oldDeviceInfo the previous version of the device, or null if it is new
+     * @param deviceInfo the new version of the device, or null if it was removed
+     */
+    private void index(DeviceInfo oldDeviceInfo, DeviceInfo deviceInfo) {
+        if (oldDeviceInfo != null) {
+            String name = oldDeviceInfo.getName();
+            for (String tag : oldDeviceInfo.getTags()) {
+                if (deviceInfo == null || !deviceInfo.getTags().contains(tag)) {
+                    tagToNames.computeIfPresent(tag, (key, names) -> {
+                        names.remove(name);
+                        return names.isEmpty() ? null : names;
+                    });
                 }
             }
-            // remove devices that were missing in the new config
-            for (String name : namesToRemove) {
-                log.info("CONFIG_REMOVED '{}'", name);
-                nameToDeviceInfo.remove(name);
-                apply(name);
+        }
+        if (deviceInfo != null) {
+            String name = deviceInfo.getName();
+            for (String tag : deviceInfo.getTags()) {
+                tagToNames
+                        .computeIfAbsent(tag, key -> ConcurrentHashMap.newKeySet())
+                        .add(name);
             }
-        });
+        }
+    }
+
+    /**
+     * @param tag the tag
+     * @return the names of the configured devices with the tag
+     */
+    public Set<String> getTagged(String tag) {
+        Set<String> names = tagToNames.get(tag);
+        return names == null ? new TreeSet<>() : new TreeSet<>(names);
+    }
+
+    /**
+     * Resolve which devices an operation should apply to.
+     *
+     * @param names specific devices, or null
+     * @param tag a tag of devices, or null
+     * @return the named devices and the devices with the tag, or all devices if neither are provided
+     */
+    private Set<String> getTargets(Collection<String> names, String tag) {
+        if (names == null && tag == null) {
+            return getAllNames();
+        }
+        Set<String> targets = tag == null ? new TreeSet<>() : getTagged(tag);
+        if (names != null) {
+            targets.addAll(names);
+        }
+        return targets;
     }
 
     /**
@@ -124,10 +294,21 @@ public class GoogolplexService implements Closeable {
              * addresses before ipv6.
              */
             InetSocketAddress address = new InetSocketAddress(addresses[0], info.getPort());
+            String serviceName = event.getName();
+            if (serviceName != null) {
+                serviceNameToName.put(serviceName, name);
+            }
+            // the device is evidently alive, so any probing is no longer necessary
+            boolean dormant = isDormant(name);
+            Probe probe = nameToProbe.remove(name);
+            if (probe != null) {
+                probe.disposable.dispose();
+            }
             InetSocketAddress oldAddress = nameToAddress.put(name, address);
-            if (!address.equals(oldAddress)) {
+            if (!address.equals(oldAddress) || dormant) {
                 /*
-                 * this is a newly discovered device, or an existing device whose address was updated.
+                 * this is a newly discovered device, or an existing device whose address was updated, or a device
+                 * which came back after being unreachable.
                  */
                 log.info("REGISTER '{}' {}", name, address);
                 apply(name);
@@ -135,6 +316,111 @@ public class GoogolplexService implements Closeable {
         });
     }
 
+    /**
+     * Handle a device which service discovery reported as removed. These events are noisy, so the
+     * device is not removed outright. Rather, its reachability is probed cheaply and it only becomes
+     * dormant after repeated failures.
+     *
+     * @param event mdns info
+     */
+    public Future<?> unregister(ServiceEvent event) {
+        return executor.submit(() -> {
+            String name = null;
+            String serviceName = event.getName();
+            if (serviceName != null) {
+                name = serviceNameToName.get(serviceName);
+            }
+            if (name == null) {
+                // the removal event may not have all of the properties
+                name = event.getInfo().getPropertyString("fn");
+            }
+            if (name == null) {
+                return;
+            }
+            InetSocketAddress address = nameToAddress.get(name);
+            if (address == null || nameToProbe.containsKey(name)) {
+                return;
+            }
+            log.info("PROBE '{}' {}", name, address);
+            probe(name, address, 0, Duration.ZERO);
+        });
+    }
+
+    /**
+     * Schedule a TCP reachability check for a device. The result is handled in the controller thread.
+     *
+     * @param name device's name
+     * @param address device's address
+     * @param failures the number of consecutive failed checks so far
+     * @param delay how long to wait before checking
+     */
+    private void probe(String name, InetSocketAddress address, int failures, Duration delay) {
+        Disposable.Swap disposable = Disposables.swap();
+        Probe probe = new Probe(address, failures, disposable);
+        nameToProbe.put(name, probe);
+        disposable.update(Mono.delay(delay)
+                .then(client.probe(address))
+                .subscribe(alive -> {
+                    // a probe may finish after the service was closed
+                    if (!executor.isShutdown()) {
+                        executor.submit(() -> handleProbe(name, probe, alive));
+                    }
+                }));
+    }
+
+    private void handleProbe(String name, Probe probe, boolean alive) {
+        if (nameToProbe.get(name) != probe) {
+            // superseded by a registration or a newer probe
+            return;
+        }
+        if (alive) {
+            nameToProbe.remove(name);
+            if (probe.failures >= probeFailures) {
+                log.info("WAKE '{}'", name);
+                apply(name);
+            } else {
+                log.debug("ALIVE '{}'", name);
+            }
+            return;
+        }
+        int failures = probe.failures + 1;
+        if (failures == probeFailures) {
+            /*
+             * stop trying to connect, since each attempt involves a full TLS handshake. the probe will continue at a
+             * lower frequency.
+             */
+            log.info("DORMANT '{}'", name);
+            Channel channel = nameToChannel.remove(name);
+            if (channel != null) {
+                channel.disposable.dispose();
+            }
+        }
+        probe(name, probe.address, failures, getProbeDelay(failures));
+    }
+
+    /**
+     * Determine the wait before the next probe. Dormant devices back off exponentially.
+     *
+     * @param failures the number of consecutive failed checks so far
+     * @return the delay
+     */
+    Duration getProbeDelay(int failures) {
+        if (failures < probeFailures) {
+            return probeInterval;
+        }
+        int exponent = Math.min(failures - probeFailures, 16);
+        Duration delay = dormantProbeInterval.multipliedBy(1L << exponent);
+        if (delay.compareTo(dormantProbeMaxInterval) > 0) {
+            return dormantProbeMaxInterval;
+        }
+        return delay;
+    }
+
+    private boolean isDormant(String name) {
+        Probe probe = nameToProbe.get(name);
+        return probe != null && probe.failures >= probeFailures;
+    }
+
     /**
      * Apply changes to a device. This closes any existing connections. If there were no existing
      * connections, then a new connection is made. The connection will be reliable.
@@ -149,6 +435,16 @@ public class GoogolplexService implements Closeable {
              */
             oldChannel.disposable.dispose();
         }
+        if (!isOwned(name)) {
+            // another instance manages the device
+            nameToChannel.remove(name);
+            return;
+        }
+        if (isDormant(name)) {
+            // the probe will apply the changes once the device is reachable
+            nameToChannel.remove(name);
+            return;
+        }
         // ensure that there is enough information to connect
         InetSocketAddress address = nameToAddress.get(name);
         if (address == null) {
@@ -158,9 +454,92 @@ public class GoogolplexService implements Closeable {
         if (deviceInfo == null) {
             return;
         }
-        AtomicReference<Instant> birth = new AtomicReference<>();
-        Disposable disposable = client.connect(address, deviceInfo, birth).subscribe();
-        nameToChannel.put(name, new Channel(birth, disposable));
+        ChannelState state = new ChannelState();
+        Disposable disposable = client.connect(address, deviceInfo, state).subscribe();
+        nameToChannel.put(name, new Channel(state, disposable));
+    }
+
+    /**
+     * Split the devices between the live instances of the cluster. Only the devices which changed
+     * owners are connected or disconnected. The devices which were released are disconnected right
+     * away, while the acquired ones are connected gradually, so that taking over a whole fleet does not
+     * flood the network.
+     *
+     * @param memberId the id of this instance
+     * @param members the ids of the instances which manage devices
+     */
+    public Future<?> updateMembers(String memberId, Collection<String> members) {
+        return executor.submit(() -> {
+            Set<String> allNames = getAllNames();
+            Map<String, Boolean> wasOwned = new HashMap<>();
+            for (String name : allNames) {
+                wasOwned.put(name, isOwned(name));
+            }
+            this.memberId = memberId;
+            this.shards = new ConsistentHashRing(members);
+            for (String name : allNames) {
+                boolean owned = isOwned(name);
+                if (owned != wasOwned.get(name)) {
+                    if (owned) {
+                        log.info("SHARD_ACQUIRED '{}'", name);
+                    } else {
+                        log.info("SHARD_RELEASED '{}'", name);
+                        apply(name);
+                    }
+                }
+            }
+            rampUp();
+        });
+    }
+
+    /**
+     * Connect the owned devices which are not connected yet, the most important devices first, at no
+     * more than the ramp rate, if there is one. A newer ramp replaces any ramp in progress. This should
+     * only be called from the executor.
+     */
+    private void rampUp() {
+        List<DeviceInfo> pending = new ArrayList<>();
+        for (DeviceInfo deviceInfo : nameToDeviceInfo.values()) {
+            String name = deviceInfo.getName();
+            if (isOwned(name) && !nameToChannel.containsKey(name) && nameToAddress.containsKey(name)) {
+                pending.add(deviceInfo);
+            }
+        }
+        if (pending.isEmpty() || clusterRampRate <= 0) {
+            ramp.update(Disposables.disposed());
+            for (DeviceInfo deviceInfo : byPriority(pending)) {
+                apply(deviceInfo.getName());
+            }
+            return;
+        }
+        log.info("RAMP {} at {}/s", pending.size(), clusterRampRate);
+        Duration interval = Duration.ofNanos(TimeUnit.SECONDS.toNanos(1) / clusterRampRate);
+        Flux<String> names = Flux.fromIterable(byPriority(pending))
+                .map(DeviceInfo::getName)
+                .delayElements(interval);
+        ramp.update(names.subscribe(name -> executor.submit(() -> {
+            // the device may have been connected or released in the meantime
+            if (isOwned(name) && !nameToChannel.containsKey(name)) {
+                apply(name);
+            }
+        })));
+    }
+
+    /**
+     * @param name the device's name
+     * @return the id of the instance which manages the device, or null if not clustered
+     */
+    private String getOwner(String name) {
+        ConsistentHashRing theShards = shards;
+        return theShards == null ? null : theShards.getOwner(name);
+    }
+
+    private boolean isOwned(String name) {
+        if (shards == null) {
+            return true;
+        }
+        String owner = getOwner(name);
+        return owner != null && owner.equals(memberId);
     }
 
     /**
@@ -173,9 +552,7 @@ public class GoogolplexService implements Closeable {
             // closing channels will cause them to reconnect
             if (name == null) {
                 // close all channels
-                for (String theName : nameToChannel.keySet()) {
-                    apply(theName);
-                }
+                refreshAll(nameToChannel.keySet());
             } else {
                 // close specific channel
                 apply(name);
@@ -183,11 +560,91 @@ public class GoogolplexService implements Closeable {
         });
     }
 
+    /**
+     * Trigger a refresh of all of the devices with a tag.
+     *
+     * @param tag the tag of the devices to refresh
+     */
+    public Future<?> refreshTagged(String tag) {
+        return executor.submit(() -> {
+            Set<String> names = tagToNames.get(tag);
+            if (names != null) {
+                refreshAll(names);
+            }
+        });
+    }
+
+    /**
+     * Refresh several devices, reconnecting the most important devices first. This should only be
+     * called from the executor.
+     *
+     * @param names the devices to refresh
+     */
+    private void refreshAll(Collection<String> names) {
+        List<DeviceInfo> devices = new ArrayList<>();
+        for (String theName : names) {
+            DeviceInfo deviceInfo = nameToDeviceInfo.get(theName);
+            if (deviceInfo == null) {
+                apply(theName);
+            } else {
+                devices.add(deviceInfo);
+            }
+        }
+        for (DeviceInfo deviceInfo : byPriority(devices)) {
+            apply(deviceInfo.getName());
+        }
+    }
+
+    /**
+     * Run a scheduled action for a device. A schedule without settings refreshes the device. A schedule
+     * with settings is pushed to the connected device in place, so that a fleet rotating its content
+     * does not reconnect all at once. This is called from the executor.
+     *
+     * @param name the device's name
+     * @param schedule the schedule which is due
+     */
+    private void runSchedule(String name, DeviceConfig.Schedule schedule) {
+        DeviceInfo deviceInfo = nameToDeviceInfo.get(name);
+        if (deviceInfo == null) {
+            return;
+        }
+        if (schedule.getSettings() == null) {
+            log.info("SCHEDULED_REFRESH '{}'", name);
+            apply(name);
+            return;
+        }
+        Channel channel = nameToChannel.get(name);
+        GoogolplexClient.GoogolplexConnection connection = channel == null ? null : channel.state.getConnection();
+        if (connection == null || !connection.isUp()) {
+            log.debug("SCHEDULED_SKIPPED '{}'", name);
+            return;
+        }
+        ObjectNode settings = MapperUtil.MAPPER.createObjectNode();
+        if (deviceInfo.getSettings() != null) {
+            settings.setAll(deviceInfo.getSettings());
+        }
+        settings.setAll(schedule.getSettings());
+        log.info("SCHEDULED_PUSH '{}'", name);
+        Mono.using(() -> client.encodeBroadcast(settings), connection::sendShared, ReferenceCounted::release)
+                .subscribe(null, e -> log.warn("SCHEDULED_PUSH_FAILED '{}'", name, e));
+    }
+
+    /**
+     * Order devices so the ones with the highest priority come first. The order is otherwise
+     * preserved.
+     *
+     * @param devices the devices to order
+     * @return the ordered devices
+     */
+    static List<DeviceInfo> byPriority(Collection<DeviceInfo> devices) {
+        List<DeviceInfo> out = new ArrayList<>(devices);
+        out.sort(Comparator.comparingInt(DeviceInfo::getPriority).reversed());
+        return out;
+    }
+
     public List<DeviceStatus> getDeviceInfo() {
         List<DeviceStatus> out = new ArrayList<>();
-        Set<String> allNames = new TreeSet<>();
-        allNames.addAll(nameToDeviceInfo.keySet());
-        allNames.addAll(nameToAddress.keySet());
+        Set<String> allNames = getAllNames();
         Instant now = Instant.now();
         for (String name : allNames) {
             DeviceStatus.DeviceStatusBuilder device = DeviceStatus.builder();
@@ -195,14 +652,17 @@ public class GoogolplexService implements Closeable {
             DeviceInfo deviceInfo = nameToDeviceInfo.get(name);
             if (deviceInfo != null) {
                 device.settings(deviceInfo.getSettings());
+                device.tags(deviceInfo.getTags());
             }
             InetSocketAddress ipAddress = nameToAddress.get(name);
             if (ipAddress != null) {
                 device.ipAddress(ipAddress.getAddress().getHostAddress());
             }
+            device.dormant(isDormant(name));
+            device.owner(getOwner(name));
             Channel channel = nameToChannel.get(name);
             if (channel != null) {
-                Instant realBirth = channel.birth.get();
+                Instant realBirth = channel.state.getBirth();
                 device.birth(realBirth);
                 if (realBirth != null) {
                     device.uptime(calculateDuration(Duration.between(realBirth, now)));
@@ -213,9 +673,261 @@ public class GoogolplexService implements Closeable {
         return out;
     }
 
+    /**
+     * Ask all of the connected devices for their status at once. The answers are collected until the
+     * deadline, so slow devices do not hold up the report.
+     *
+     * @return the aggregated answers
+     */
+    public Mono<FleetStatus> queryStatus() {
+        return queryStatus(null);
+    }
+
+    /**
+     * Ask the connected devices with a tag for their status at once.
+     *
+     * @param tag the tag of the devices to ask, or null for all devices
+     * @return the aggregated answers
+     */
+    public Mono<FleetStatus> queryStatus(String tag) {
+        return Mono.defer(() -> {
+            Instant queried = Instant.now();
+            long start = System.nanoTime();
+            Set<String> tagged = tag == null ? null : getTagged(tag);
+            Map<String, GoogolplexClient.GoogolplexConnection> connections = new HashMap<>();
+            if (tagged == null) {
+                for (Map.Entry<String, Channel> entry : nameToChannel.entrySet()) {
+                    GoogolplexClient.GoogolplexConnection connection = entry.getValue().state.getConnection();
+                    if (connection != null) {
+                        connections.put(entry.getKey(), connection);
+                    }
+                }
+            } else {
+                // only look at the devices in the group
+                for (String name : tagged) {
+                    Channel channel = nameToChannel.get(name);
+                    GoogolplexClient.GoogolplexConnection connection =
+                            channel == null ? null : channel.state.getConnection();
+                    if (connection != null) {
+                        connections.put(name, connection);
+                    }
+                }
+            }
+            Map<String, FleetStatus.Device> answers = new ConcurrentHashMap<>();
+            return Flux.fromIterable(connections.entrySet())
+                    .flatMap(entry -> queryStatus(entry.getKey(), entry.getValue()), statusConcurrency)
+                    .take(statusDeadline)
+                    .doOnNext(device -> answers.put(device.getName(), device))
+                    .then(Mono.fromCallable(() -> {
+                        Set<String> allNames = tagged == null ? getAllNames() : tagged;
+                        allNames.addAll(connections.keySet());
+                        List<FleetStatus.Device> devices = new ArrayList<>();
+                        int answered = 0;
+                        for (String name : allNames) {
+                            FleetStatus.Device device = answers.get(name);
+                            if (device == null) {
+                                FleetStatus.Result result = connections.containsKey(name)
+                                        ? FleetStatus.Result.TIMEOUT
+                                        : FleetStatus.Result.DISCONNECTED;
+                                device = FleetStatus.Device.builder()
+                                        .name(name)
+                                        .result(result)
+                                        .build();
+                            } else if (device.getResult() == FleetStatus.Result.ANSWERED) {
+                                answered++;
+                            }
+                            devices.add(device);
+                        }
+                        return FleetStatus.builder()
+                                .queried(queried)
+                                .elapsedMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+                                .answered(answered)
+                                .devices(devices)
+                                .build();
+                    }));
+        });
+    }
+
+    private Mono<FleetStatus.Device> queryStatus(String name, GoogolplexClient.GoogolplexConnection connection) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return connection
+                    .getStatus(statusDeadline)
+                    .map(response -> FleetStatus.Device.builder()
+                            .name(name)
+                            .result(FleetStatus.Result.ANSWERED)
+                            .latencyMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+                            .status(response.get("status"))
+                            .build())
+                    .onErrorResume(e -> {
+                        FleetStatus.Result result = e instanceof TimeoutException
+                                ? FleetStatus.Result.TIMEOUT
+                                : FleetStatus.Result.ERROR;
+                        return Mono.just(FleetStatus.Device.builder()
+                                .name(name)
+                                .result(result)
+                                .build());
+                    });
+        });
+    }
+
+    /**
+     * Send the same settings to several devices at once, without reconnecting them. The message is
+     * serialized once and shared by all of the connections. The devices show the broadcast until their
+     * own settings are sent again, such as after a refresh.
+     *
+     * @param names the devices to send to, or null
+     * @param tag the tag of the devices to send to, or null. If neither are provided, all devices are
+     *     targeted.
+     * @param settings the settings to show
+     * @return which devices the broadcast was delivered to
+     */
+    public Mono<BroadcastResult> broadcast(Collection<String> names, String tag, JsonNode settings) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            Set<String> targets = getTargets(names, tag);
+            return Mono.using(
+                            () -> client.encodeBroadcast(settings),
+                            payload -> Flux.fromIterable(targets)
+                                    .flatMap(name -> broadcast(name, payload))
+                                    .collectSortedList(Comparator.comparing(BroadcastResult.Device::getName)),
+                            ReferenceCounted::release)
+                    .map(devices -> {
+                        int delivered = 0;
+                        for (BroadcastResult.Device device : devices) {
+                            if (device.getDelivery() == BroadcastResult.Delivery.DELIVERED) {
+                                delivered++;
+                            }
+                        }
+                        log.info("BROADCAST {}/{}", delivered, devices.size());
+                        return BroadcastResult.builder()
+                                .elapsedMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+                                .delivered(delivered)
+                                .devices(devices)
+                                .build();
+                    });
+        });
+    }
+
+    private Mono<BroadcastResult.Device> broadcast(String name, ByteBuf payload) {
+        BroadcastResult.Device.DeviceBuilder device = BroadcastResult.Device.builder().name(name);
+        Channel channel = nameToChannel.get(name);
+        GoogolplexClient.GoogolplexConnection connection = channel == null ? null : channel.state.getConnection();
+        if (connection == null || !connection.isUp()) {
+            return Mono.just(device.delivery(BroadcastResult.Delivery.NOT_CONNECTED).build());
+        }
+        // the device may go down at any moment, which is reported for this device alone
+        return Mono.defer(() -> connection.sendShared(payload))
+                .thenReturn(device.delivery(BroadcastResult.Delivery.DELIVERED).build())
+                .onErrorResume(e -> {
+                    log.warn("BROADCAST_FAILED '{}'", name, e);
+                    return Mono.just(device.delivery(BroadcastResult.Delivery.FAILED).build());
+                });
+    }
+
+    /**
+     * Have several devices switch to the same settings at the same moment. The settings are staged on
+     * every device ahead of time, and the clock of each device is estimated, so that each device can
+     * be told when to switch in terms of its own clock. Network delays then do not affect the timing of
+     * the switch, as long as the commit arrives before the scheduled time.
+     *
+     * @param names the devices to switch, or null
+     * @param tag the tag of the devices to switch, or null. If neither are provided, all devices are
+     *     targeted.
+     * @param settings the settings to show
+     * @param at when to switch, or null to switch shortly
+     * @return which devices will switch
+     */
+    public Mono<SwitchResult> scheduleSwitch(Collection<String> names, String tag, JsonNode settings, Instant at) {
+        return Mono.defer(() -> {
+            Instant switchAt = at == null ? Instant.now().plus(switchLead) : at;
+            String stageId = UUID.randomUUID().toString();
+            Set<String> targets = getTargets(names, tag);
+            // every device is staged before any is committed
+            return Flux.fromIterable(targets)
+                    .flatMap(name -> stage(name, stageId, settings))
+                    .collectList()
+                    .flatMapMany(staged -> Flux.fromIterable(staged))
+                    .flatMap(staged -> commit(staged, stageId, switchAt))
+                    .collectSortedList(Comparator.comparing(SwitchResult.Device::getName))
+                    .map(devices -> {
+                        int committed = 0;
+                        for (SwitchResult.Device device : devices) {
+                            if (device.getResult() == SwitchResult.Result.COMMITTED) {
+                                committed++;
+                            }
+                        }
+                        log.info("SWITCH {}/{} {}", committed, devices.size(), switchAt);
+                        return SwitchResult.builder()
+                                .at(switchAt)
+                                .committed(committed)
+                                .devices(devices)
+                                .build();
+                    });
+        });
+    }
+
+    private Mono<Staged> stage(String name, String stageId, JsonNode settings) {
+        Channel channel = nameToChannel.get(name);
+        ChannelState state = channel == null ? null : channel.state;
+        GoogolplexClient.GoogolplexConnection connection = state == null ? null : state.getConnection();
+        if (connection == null || !connection.isUp()) {
+            return Mono.just(new Staged(name, state, null, SwitchResult.Result.NOT_CONNECTED));
+        }
+        return connection
+                .syncClock()
+                .then(connection.stage(stageId, settings))
+                .thenReturn(new Staged(name, state, connection, null))
+                .onErrorResume(e -> {
+                    log.warn("STAGE_FAILED '{}'", name, e);
+                    return Mono.just(new Staged(name, state, null, SwitchResult.Result.FAILED));
+                });
+    }
+
+    private Mono<SwitchResult.Device> commit(Staged staged, String stageId, Instant at) {
+        SwitchResult.Device.DeviceBuilder device = SwitchResult.Device.builder().name(staged.name);
+        if (staged.state != null) {
+            Duration clockOffset = staged.state.getClockOffset();
+            if (clockOffset != null) {
+                device.clockOffsetMillis(clockOffset.toMillis());
+            }
+            Duration roundTrip = staged.state.getRoundTrip();
+            if (roundTrip != null) {
+                device.roundTripMillis(roundTrip.toMillis());
+            }
+        }
+        if (staged.connection == null) {
+            return Mono.just(device.result(staged.result).build());
+        }
+        return staged.connection
+                .commit(stageId, at.plus(staged.state.getClockOffset()))
+                .then(Mono.fromCallable(() -> {
+                    SwitchResult.Result result =
+                            Instant.now().isAfter(at) ? SwitchResult.Result.LATE : SwitchResult.Result.COMMITTED;
+                    return device.result(result).build();
+                }))
+                .onErrorResume(e -> {
+                    log.warn("COMMIT_FAILED '{}'", staged.name, e);
+                    return Mono.just(device.result(SwitchResult.Result.FAILED).build());
+                });
+    }
+
+    private Set<String> getAllNames() {
+        Set<String> allNames = new TreeSet<>();
+        allNames.addAll(nameToDeviceInfo.keySet());
+        allNames.addAll(nameToAddress.keySet());
+        return allNames;
+    }
+
     @Override
     public void close() {
+        ramp.dispose();
+        executor.submit(scheduler::close);
         nameToDeviceInfo.clear();
+        tagToNames.clear();
+        for (Probe probe : nameToProbe.values()) {
+            probe.disposable.dispose();
+        }
         refresh(null);
         executor.shutdown();
         try {
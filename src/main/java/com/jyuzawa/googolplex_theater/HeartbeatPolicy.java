@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class decides how often a device is sent heartbeats. In adaptive mode, the interval doubles
+ * after a run of prompt and steady heartbeats, up to a maximum. It drops back to the base interval as
+ * soon as a heartbeat goes unanswered, is slow, or strays from the usual round trip. The interval is
+ * kept in the {@link ChannelState}, so an expiry also tightens the interval of the next connection.
+ *
+ * @author jyuzawa
+ */
+final class HeartbeatPolicy {
+    /** How many steady heartbeats are needed before the interval is stretched. */
+    static final int STABLE_HEARTBEATS = 6;
+
+    /** Heartbeats slower than this are never considered steady. */
+    static final long MAX_STABLE_ROUND_TRIP_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+
+    /** The allowed deviation from the smoothed round trip, in case it is very small. */
+    private static final long MIN_JITTER_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private final Duration interval;
+    private final Duration maxInterval;
+    private final long timeoutNanos;
+    private final boolean adaptive;
+
+    /**
+     * Create a policy.
+     *
+     * @param interval the base interval between heartbeats
+     * @param maxInterval the largest interval which may be used for a steady device
+     * @param timeout how long to wait for a heartbeat at the base interval
+     * @param adaptive whether the interval may change at all
+     */
+    HeartbeatPolicy(Duration interval, Duration maxInterval, Duration timeout, boolean adaptive) {
+        this.interval = interval;
+        this.maxInterval = maxInterval.compareTo(interval) < 0 ? interval : maxInterval;
+        this.timeoutNanos = timeout.toNanos();
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * @param state the device's state
+     * @return the interval until the next heartbeat
+     */
+    Duration getInterval(ChannelState state) {
+        Duration current = state.getHeartbeatInterval();
+        if (!adaptive || current == null) {
+            return interval;
+        }
+        return current;
+    }
+
+    /**
+     * The timeout grows with the interval, so that a stretched device may still miss a couple of
+     * heartbeats before it is considered dead.
+     *
+     * @param currentInterval the interval in use
+     * @return how many nanoseconds to wait for a heartbeat before the connection is considered dead
+     */
+    long getTimeoutNanos(Duration currentInterval) {
+        long stretch = currentInterval.toNanos() - interval.toNanos();
+        if (stretch <= 0) {
+            return timeoutNanos;
+        }
+        return timeoutNanos + stretch * 2;
+    }
+
+    /**
+     * Check a round trip against the device's history, before it is incorporated.
+     *
+     * @param state the device's state
+     * @param sampleNanos the measured round trip in nanoseconds
+     * @return whether the heartbeat was prompt and steady
+     */
+    static boolean isStable(ChannelState state, long sampleNanos) {
+        if (sampleNanos > MAX_STABLE_ROUND_TRIP_NANOS) {
+            return false;
+        }
+        long roundTripNanos = state.getRoundTripNanos();
+        if (roundTripNanos < 0) {
+            return true;
+        }
+        long jitterNanos = Math.max(state.getRoundTripVarianceNanos() * 4, MIN_JITTER_NANOS);
+        return Math.abs(sampleNanos - roundTripNanos) <= jitterNanos;
+    }
+
+    /**
+     * Record the outcome of a heartbeat, which may change the interval.
+     *
+     * @param state the device's state
+     * @param stable whether the heartbeat was answered promptly and steadily
+     */
+    void record(ChannelState state, boolean stable) {
+        if (!adaptive) {
+            return;
+        }
+        if (!stable) {
+            reset(state);
+            return;
+        }
+        int streak = state.getStableHeartbeats() + 1;
+        Duration current = getInterval(state);
+        if (streak >= STABLE_HEARTBEATS && current.compareTo(maxInterval) < 0) {
+            Duration next = current.multipliedBy(2);
+            state.setHeartbeatInterval(next.compareTo(maxInterval) > 0 ? maxInterval : next);
+            streak = 0;
+        }
+        state.setStableHeartbeats(streak);
+    }
+
+    /**
+     * Return to the base interval, such as after an expiry.
+     *
+     * @param state the device's state
+     */
+    void reset(ChannelState state) {
+        state.setStableHeartbeats(0);
+        state.setHeartbeatInterval(null);
+    }
+}
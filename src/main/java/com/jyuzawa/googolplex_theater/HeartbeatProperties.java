@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import java.time.Duration;
+import lombok.Builder;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * The settings of the heartbeats, which detect lost connections.
+ *
+ * @param heartbeatInterval how often to send a heartbeat
+ * @param heartbeatTimeout how long to wait for a heartbeat before reconnecting
+ * @param heartbeatMaxInterval the longest interval an adaptive heartbeat may stretch to
+ * @param adaptiveHeartbeat whether to stretch the interval for stable connections
+ * @author jyuzawa
+ */
+@Builder(toBuilder = true)
+@ConfigurationProperties("googolplex-theater")
+public record HeartbeatProperties(
+        Duration heartbeatInterval,
+        Duration heartbeatTimeout,
+        Duration heartbeatMaxInterval,
+        boolean adaptiveHeartbeat) {}
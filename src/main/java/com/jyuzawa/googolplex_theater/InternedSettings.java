@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class canonicalizes settings trees by their fingerprint. Many devices often end up with the
+ * same settings once the shared settings are merged in, so they all share a single tree and a single
+ * serialized form. The cached tree is a copy of the one it was interned from, so later changes to
+ * that tree do not reach the other devices, and it must not be handed out for modification. Settings
+ * which are no longer used by any device are dropped from the cache.
+ *
+ * @author jyuzawa
+ */
+final class InternedSettings {
+    private static final ConcurrentHashMap<String, Ref> CACHE = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<InternedSettings> QUEUE = new ReferenceQueue<>();
+
+    private final ObjectNode settings;
+    private final String fingerprint;
+    private volatile String json;
+
+    private InternedSettings(ObjectNode settings, String fingerprint) {
+        this.settings = settings;
+        this.fingerprint = fingerprint;
+    }
+
+    private static final class Ref extends WeakReference<InternedSettings> {
+        private final String fingerprint;
+
+        private Ref(InternedSettings referent) {
+            super(referent, QUEUE);
+            this.fingerprint = referent.fingerprint;
+        }
+    }
+
+    /**
+     * Find the canonical instance of the settings.
+     *
+     * @param settings the settings, which may be null
+     * @return an instance shared with any other equivalent settings
+     */
+    static InternedSettings intern(ObjectNode settings) {
+        expunge();
+        String fingerprint = FingerprintUtil.fingerprint(settings);
+        while (true) {
+            Ref ref = CACHE.get(fingerprint);
+            InternedSettings existing = ref == null ? null : ref.get();
+            if (existing != null) {
+                return existing;
+            }
+            InternedSettings created = new InternedSettings(settings == null ? null : settings.deepCopy(), fingerprint);
+            Ref newRef = new Ref(created);
+            boolean added = ref == null
+                    ? CACHE.putIfAbsent(fingerprint, newRef) == null
+                    : CACHE.replace(fingerprint, ref, newRef);
+            if (added) {
+                return created;
+            }
+            // another thread interned the same settings at the same time
+        }
+    }
+
+    private static void expunge() {
+        Ref ref;
+        while ((ref = (Ref) QUEUE.poll()) != null) {
+            CACHE.remove(ref.fingerprint, ref);
+        }
+    }
+
+    static int size() {
+        expunge();
+        return CACHE.size();
+    }
+
+    ObjectNode getSettings() {
+        return settings;
+    }
+
+    String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return the settings serialized as JSON, which is computed once
+     */
+    String getJson() {
+        String out = json;
+        if (out == null) {
+            try {
+                out = MapperUtil.MAPPER.writeValueAsString(settings);
+            } catch (IOException e) {
+                throw new GoogolplexClientException("EncodingException", e);
+            }
+            json = out;
+        }
+        return out;
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+/**
+ * This class is a POJO for JSON deserialization. Our receiver application sends it to acknowledge
+ * the settings, once they have been rendered.
+ *
+ * @author jyuzawa
+ */
+@Data
+public final class LoadedMessage {
+    private final int requestId;
+
+    /** The fingerprint of the settings being shown, or null if unknown. */
+    private final String fingerprint;
+
+    /**
+     * How long the receiver took to render the settings, as measured on the device. This is null if
+     * the settings were not rendered for this request, such as when they were already loaded.
+     */
+    private final Long renderMillis;
+
+    @JsonCreator
+    public LoadedMessage(
+            @JsonProperty("requestId") int requestId,
+            @JsonProperty("fingerprint") String fingerprint,
+            @JsonProperty("renderMillis") Long renderMillis) {
+        this.requestId = requestId;
+        this.fingerprint = fingerprint;
+        this.renderMillis = renderMillis;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.retry.Retry;
+
+/**
+ * This class correlates the responses from a device with the requests which prompted them. Each
+ * request is assigned a unique requestId, which the device echoes in its response. The requestId 0
+ * is never assigned, since devices use it for unsolicited messages.
+ *
+ * @author jyuzawa
+ */
+final class PendingRequests {
+    private final AtomicInteger nextRequestId;
+    private final Map<Integer, Sinks.One<JsonNode>> pending;
+
+    PendingRequests() {
+        this.nextRequestId = new AtomicInteger(1);
+        this.pending = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Send a request and wait for its response. Each attempt uses a new requestId, so a late response
+     * to an earlier attempt is not mistaken for a response to a later one.
+     *
+     * @param timeout how long to wait for the response of each attempt
+     * @param retries how many more attempts to make after a timeout
+     * @param send sends the request with the given requestId
+     * @return the response, or a {@link TimeoutException} if every attempt went unanswered
+     */
+    Mono<JsonNode> request(Duration timeout, int retries, IntFunction<Mono<Void>> send) {
+        return Mono.defer(() -> {
+                    int requestId = nextRequestId.getAndIncrement();
+                    Sinks.One<JsonNode> sink = Sinks.one();
+                    pending.put(requestId, sink);
+                    return send.apply(requestId)
+                            .then(sink.asMono())
+                            .timeout(timeout)
+                            .doFinally(sig -> pending.remove(requestId));
+                })
+                .retryWhen(Retry.max(retries)
+                        .filter(TimeoutException.class::isInstance)
+                        .onRetryExhaustedThrow((spec, signal) -> signal.failure()));
+    }
+
+    /**
+     * Deliver a response to the request which is waiting for it.
+     *
+     * @param requestId the requestId echoed by the device
+     * @param response the content of the response
+     * @return whether a request was waiting for the response
+     */
+    boolean complete(int requestId, JsonNode response) {
+        if (requestId == 0) {
+            return false;
+        }
+        Sinks.One<JsonNode> sink = pending.remove(requestId);
+        if (sink == null) {
+            return false;
+        }
+        sink.tryEmitValue(response);
+        return true;
+    }
+
+    int size() {
+        return pending.size();
+    }
+}
@@ -114,8 +114,9 @@ public final class ServiceDiscovery implements Closeable {
         public void serviceRemoved(ServiceEvent event) {
             /*
              * NOTE: it is hard to determine if something is permanently disconnected. empirically, we do get a lot of
-             * these events when the device is not actually disconnected.
+             * these events when the device is not actually disconnected, so the device is probed instead.
              */
+            service.unregister(event);
         }
 
         @Override
@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import java.time.Duration;
+import lombok.Builder;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * The settings of the controller, which decides when to talk to the devices.
+ *
+ * @param probeInterval how often to check if an unreachable device is back
+ * @param probeFailures how many failed checks make a device dormant
+ * @param dormantProbeInterval how often to check a dormant device at first
+ * @param dormantProbeMaxInterval the longest the checks of a dormant device back off to
+ * @param statusDeadline how long to wait for the devices to report their status
+ * @param statusConcurrency how many devices to query for their status at once
+ * @param switchLead how far ahead to stage a scheduled switch
+ * @param scheduleJitter the window over which scheduled runs are spread
+ * @author jyuzawa
+ */
+@Builder(toBuilder = true)
+@ConfigurationProperties("googolplex-theater")
+public record ServiceProperties(
+        Duration probeInterval,
+        int probeFailures,
+        Duration dormantProbeInterval,
+        Duration dormantProbeMaxInterval,
+        Duration statusDeadline,
+        int statusConcurrency,
+        Duration switchLead,
+        Duration scheduleJitter) {}
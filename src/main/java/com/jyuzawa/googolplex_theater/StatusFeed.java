@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import java.time.Duration;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+/**
+ * This class publishes snapshots of the device statuses at a regular interval, so that other
+ * instances can follow this instance without polling it. The snapshots double as a heartbeat, so a
+ * subscriber can tell when the feed has gone quiet.
+ *
+ * @author jyuzawa
+ */
+@Component
+public final class StatusFeed {
+
+    private final GoogolplexService service;
+    private final Duration feedInterval;
+
+    @Autowired
+    public StatusFeed(
+            GoogolplexService service, @Value("${googolplex-theater.feed-interval}") Duration feedInterval) {
+        this.service = service;
+        this.feedInterval = feedInterval;
+    }
+
+    /**
+     * @return the device statuses, now and then at every interval
+     */
+    public Flux<List<DeviceStatus>> stream() {
+        // a slow subscriber only needs the latest snapshot
+        return Flux.interval(Duration.ZERO, feedInterval)
+                .onBackpressureDrop()
+                .map(ignored -> service.getDeviceInfo());
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import java.time.Instant;
+import java.util.List;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * This class reports which of the targeted devices will switch their content at the scheduled time.
+ *
+ * @author jyuzawa
+ */
+@Value
+@Builder
+public final class SwitchResult {
+    Instant at;
+    int committed;
+    List<Device> devices;
+
+    public enum Result {
+        /** The device will switch at the scheduled time. */
+        COMMITTED,
+        /** The device switched, but the commit arrived after the scheduled time. */
+        LATE,
+        /** The settings could not be staged or committed on the device. */
+        FAILED,
+        /** The receiver application is not up on the device. */
+        NOT_CONNECTED
+    }
+
+    @Value
+    @Builder
+    public static final class Device {
+        String name;
+        Result result;
+        Long clockOffsetMillis;
+        Long roundTripMillis;
+    }
+}
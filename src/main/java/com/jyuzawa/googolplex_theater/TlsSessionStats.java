@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.handler.ssl.SslHandler;
+import javax.net.ssl.SSLSession;
+import reactor.netty.Connection;
+
+/**
+ * This class tracks how often TLS sessions are resumed when connecting to devices. A resumed session
+ * skips the expensive key exchange of a full handshake.
+ *
+ * @author jyuzawa
+ */
+final class TlsSessionStats {
+    static final String METRIC_HANDSHAKES = "googolplex.tls.handshakes";
+    static final String METRIC_HIT_RATIO = "googolplex.tls.session.hit.ratio";
+
+    private final Counter resumed;
+    private final Counter full;
+
+    TlsSessionStats(MeterRegistry meterRegistry) {
+        this.resumed = Counter.builder(METRIC_HANDSHAKES)
+                .description("TLS handshakes with devices")
+                .tag("resumed", "true")
+                .register(meterRegistry);
+        this.full = Counter.builder(METRIC_HANDSHAKES)
+                .description("TLS handshakes with devices")
+                .tag("resumed", "false")
+                .register(meterRegistry);
+        Gauge.builder(METRIC_HIT_RATIO, this, TlsSessionStats::getHitRatio)
+                .description("Fraction of TLS handshakes with devices which resumed a cached session")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Record the outcome of the connection's handshake once it completes.
+     *
+     * @param conn a secure connection
+     * @param connectMillis the wall time when the connection was initiated
+     */
+    void record(Connection conn, long connectMillis) {
+        SslHandler sslHandler = conn.channel().pipeline().get(SslHandler.class);
+        if (sslHandler == null) {
+            return;
+        }
+        sslHandler.handshakeFuture().addListener(future -> {
+            if (future.isSuccess()) {
+                record(sslHandler.engine().getSession(), connectMillis);
+            }
+        });
+    }
+
+    /**
+     * A resumed session was created during some earlier handshake, so it predates this connection.
+     *
+     * @param session the negotiated session
+     * @param connectMillis the wall time when the connection was initiated
+     */
+    void record(SSLSession session, long connectMillis) {
+        if (session.getCreationTime() < connectMillis) {
+            resumed.increment();
+        } else {
+            full.increment();
+        }
+    }
+
+    long getResumed() {
+        return (long) resumed.count();
+    }
+
+    long getHandshakes() {
+        return (long) (resumed.count() + full.count());
+    }
+
+    double getHitRatio() {
+        double handshakes = resumed.count() + full.count();
+        if (handshakes == 0) {
+            return 0;
+        }
+        return resumed.count() / handshakes;
+    }
+}
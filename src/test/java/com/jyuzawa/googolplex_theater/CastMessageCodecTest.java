@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.jyuzawa.googolplex_theater.protobuf.Wire.CastMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.handler.codec.protobuf.ProtobufDecoder;
+import io.netty.handler.codec.protobuf.ProtobufEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class CastMessageCodecTest {
+
+    static final CastMessage MESSAGE = GoogolplexClient.generateMessage(
+            GoogolplexClient.NAMESPACE_CUSTOM, "sender-1", "receiver-1", Map.of("name", "device", "\u03c0", "\u00fc"));
+
+    static EmbeddedChannel newLegacyChannel() {
+        return new EmbeddedChannel(
+                new LengthFieldBasedFrameDecoder(GoogolplexClient.DEFAULT_MAX_FRAME_LENGTH, 0, 4, 0, 4),
+                new ProtobufDecoder(CastMessage.getDefaultInstance()),
+                new LengthFieldPrepender(4),
+                new ProtobufEncoder());
+    }
+
+    static EmbeddedChannel newChannel() {
+        return new EmbeddedChannel(new CastMessageCodec(GoogolplexClient.DEFAULT_MAX_FRAME_LENGTH));
+    }
+
+    /**
+     * Drain the outbound buffers into a single buffer.
+     *
+     * @param channel the channel which wrote messages
+     * @return the bytes written
+     */
+    static ByteBuf readOutbound(EmbeddedChannel channel) {
+        ByteBuf out = Unpooled.buffer();
+        ByteBuf buf;
+        while ((buf = channel.readOutbound()) != null) {
+            out.writeBytes(buf);
+            buf.release();
+        }
+        return out;
+    }
+
+    @Test
+    void encodeCompatibilityTest() {
+        EmbeddedChannel channel = newChannel();
+        EmbeddedChannel legacyChannel = newLegacyChannel();
+        channel.writeOutbound(MESSAGE);
+        legacyChannel.writeOutbound(MESSAGE);
+        ByteBuf encoded = readOutbound(channel);
+        assertEquals(readOutbound(legacyChannel), encoded);
+        legacyChannel.writeInbound(encoded);
+        assertEquals(MESSAGE, legacyChannel.readInbound());
+    }
+
+    @Test
+    void decodeCompatibilityTest() {
+        EmbeddedChannel channel = newChannel();
+        EmbeddedChannel legacyChannel = newLegacyChannel();
+        legacyChannel.writeOutbound(MESSAGE, MESSAGE);
+        ByteBuf encoded = readOutbound(legacyChannel);
+        // deliver the frames in pieces to exercise the accumulation
+        int split = encoded.readableBytes() / 3;
+        channel.writeInbound(encoded.readRetainedSlice(split));
+        assertNull(channel.readInbound());
+        channel.writeInbound(encoded);
+        assertEquals(MESSAGE, channel.readInbound());
+        assertEquals(MESSAGE, channel.readInbound());
+        assertNull(channel.readInbound());
+    }
+
+    @Test
+    void filterTest() {
+        List<String> seen = new ArrayList<>();
+        EmbeddedChannel channel = new EmbeddedChannel(new CastMessageCodec(
+                GoogolplexClient.DEFAULT_MAX_FRAME_LENGTH, (namespace, sourceId, destinationId) -> {
+                    seen.add(namespace + " " + sourceId + " " + destinationId);
+                    return !GoogolplexClient.NAMESPACE_HEARTBEAT.equals(namespace);
+                }));
+        CastMessage heartbeat = GoogolplexClient.generateMessage(
+                GoogolplexClient.NAMESPACE_HEARTBEAT, "sender-1", "receiver-1", Map.of("type", "PONG"));
+        EmbeddedChannel legacyChannel = newLegacyChannel();
+        legacyChannel.writeOutbound(heartbeat, MESSAGE, CastMessage.getDefaultInstance());
+        channel.writeInbound(readOutbound(legacyChannel));
+        assertEquals(MESSAGE, channel.readInbound());
+        assertEquals(CastMessage.getDefaultInstance(), channel.readInbound());
+        assertNull(channel.readInbound());
+        assertEquals(
+                List.of(
+                        GoogolplexClient.NAMESPACE_HEARTBEAT + " sender-1 receiver-1",
+                        GoogolplexClient.NAMESPACE_CUSTOM + " sender-1 receiver-1",
+                        "  "),
+                seen);
+    }
+
+    @Test
+    void sharedPayloadTest() throws Exception {
+        ByteBuf payload = CastMessageCodec.encodePayload(ByteBufAllocator.DEFAULT, MESSAGE.getPayloadUtf8());
+        CastMessage routing = MESSAGE.toBuilder().clearPayloadUtf8().build();
+        ByteBuf framed = CastMessageCodec.frame(ByteBufAllocator.DEFAULT, routing, payload);
+        ByteBuf framedAgain = CastMessageCodec.frame(ByteBufAllocator.DEFAULT, routing, payload);
+        // the frames hold their own references to the payload
+        payload.release();
+        EmbeddedChannel legacyChannel = newLegacyChannel();
+        legacyChannel.writeOutbound(MESSAGE);
+        ByteBuf expected = readOutbound(legacyChannel);
+        assertEquals(expected, framed);
+        assertEquals(expected, framedAgain);
+        framed.release();
+        framedAgain.release();
+        assertEquals(0, payload.refCnt());
+    }
+
+    @Test
+    void preframedTest() throws Exception {
+        ByteBuf framed = CastMessageCodec.frame(ByteBufAllocator.DEFAULT, MESSAGE);
+        EmbeddedChannel legacyChannel = newLegacyChannel();
+        legacyChannel.writeOutbound(MESSAGE);
+        ByteBuf expected = readOutbound(legacyChannel);
+        assertEquals(expected, framed);
+        // the frame may be sent repeatedly
+        EmbeddedChannel channel = new EmbeddedChannel(new CastMessageCodec(GoogolplexClient.DEFAULT_MAX_FRAME_LENGTH));
+        channel.writeInbound(framed.retainedDuplicate(), framed.retainedDuplicate());
+        assertEquals(MESSAGE, channel.readInbound());
+        assertEquals(MESSAGE, channel.readInbound());
+        framed.release();
+        assertEquals(0, framed.refCnt());
+    }
+
+    @Test
+    void tooLongTest() {
+        EmbeddedChannel channel = new EmbeddedChannel(new CastMessageCodec(16));
+        ByteBuf encoded = Unpooled.buffer().writeInt(17).writeZero(17);
+        assertThrows(TooLongFrameException.class, () -> channel.writeInbound(encoded));
+    }
+}
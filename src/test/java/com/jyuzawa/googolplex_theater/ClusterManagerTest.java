@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class ClusterManagerTest {
+
+    @Test
+    void getOwnersTest() {
+        List<String> members = List.of("a", "b", "c");
+        assertEquals(members, ClusterManager.getOwners(ClusterMode.SHARDED, members));
+        // only the instance which joined first is active
+        assertEquals(List.of("a"), ClusterManager.getOwners(ClusterMode.STANDBY, members));
+        assertEquals(List.of("b"), ClusterManager.getOwners(ClusterMode.STANDBY, List.of("b")));
+        assertEquals(List.of(), ClusterManager.getOwners(ClusterMode.STANDBY, List.of()));
+    }
+
+    @Test
+    void modeTest() {
+        assertEquals(ClusterMode.STANDBY, ClusterMode.of("standby"));
+        assertThrows(IllegalArgumentException.class, () -> ClusterMode.of("active"));
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+class ConnectionAdmissionTest {
+
+    @Test
+    void priorityTest() {
+        ConnectionAdmission admission = new ConnectionAdmission(1);
+        List<String> admitted = new ArrayList<>();
+        Sinks.Empty<Void> blocker = Sinks.empty();
+        // occupy the only slot
+        admission
+                .admit(0, Mono.fromRunnable(() -> admitted.add("first")).then(blocker.asMono()))
+                .subscribe();
+        admission
+                .admit(0, Mono.fromRunnable(() -> admitted.add("low")))
+                .subscribe();
+        Disposable cancelled = admission
+                .admit(20, Mono.fromRunnable(() -> admitted.add("cancelled")))
+                .subscribe();
+        admission
+                .admit(10, Mono.fromRunnable(() -> admitted.add("high")))
+                .subscribe();
+        admission
+                .admit(0, Mono.fromRunnable(() -> admitted.add("later")))
+                .subscribe();
+        assertEquals(List.of("first"), admitted);
+        assertEquals(1, admission.getInProgress());
+        assertEquals(4, admission.getWaiting());
+        cancelled.dispose();
+        assertEquals(3, admission.getWaiting());
+        // the waiting attempts complete immediately, so they are admitted one after another
+        blocker.tryEmitEmpty();
+        assertEquals(List.of("first", "high", "low", "later"), admitted);
+        assertEquals(0, admission.getInProgress());
+        assertEquals(0, admission.getWaiting());
+    }
+
+    @Test
+    void unlimitedTest() {
+        ConnectionAdmission admission = new ConnectionAdmission(0);
+        Sinks.Empty<Void> blocker = Sinks.empty();
+        for (int i = 0; i < 10; i++) {
+            admission.admit(0, blocker.asMono()).subscribe();
+        }
+        assertEquals(0, admission.getInProgress());
+        assertEquals(0, admission.getWaiting());
+    }
+}
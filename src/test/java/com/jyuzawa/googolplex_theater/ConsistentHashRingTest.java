@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class ConsistentHashRingTest {
+
+    private static final int DEVICES = 3000;
+
+    private static Map<String, String> assign(ConsistentHashRing ring) {
+        Map<String, String> out = new HashMap<>();
+        for (int i = 0; i < DEVICES; i++) {
+            String name = "device" + i;
+            out.put(name, ring.getOwner(name));
+        }
+        return out;
+    }
+
+    @Test
+    void balanceTest() {
+        Map<String, String> owners = assign(new ConsistentHashRing(List.of("a", "b", "c")));
+        Map<String, Integer> counts = new HashMap<>();
+        for (String owner : owners.values()) {
+            counts.merge(owner, 1, Integer::sum);
+        }
+        assertEquals(3, counts.size());
+        for (int count : counts.values()) {
+            // within a quarter of an even split
+            assertTrue(Math.abs(count - DEVICES / 3) < DEVICES / 12, counts.toString());
+        }
+        // the order of the members does not matter
+        assertEquals(owners, assign(new ConsistentHashRing(List.of("c", "a", "b"))));
+    }
+
+    @Test
+    void rebalanceTest() {
+        Map<String, String> before = assign(new ConsistentHashRing(List.of("a", "b", "c")));
+        Map<String, String> after = assign(new ConsistentHashRing(List.of("a", "b", "c", "d")));
+        int moved = 0;
+        for (Map.Entry<String, String> entry : after.entrySet()) {
+            String oldOwner = before.get(entry.getKey());
+            if (!oldOwner.equals(entry.getValue())) {
+                // devices only move to the new member
+                assertEquals("d", entry.getValue());
+                moved++;
+            }
+        }
+        assertTrue(moved > DEVICES / 6 && moved < DEVICES / 3, Integer.toString(moved));
+    }
+
+    @Test
+    void emptyTest() {
+        assertNull(ConsistentHashRing.EMPTY.getOwner("device"));
+    }
+}
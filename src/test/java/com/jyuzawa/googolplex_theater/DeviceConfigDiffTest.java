@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.jyuzawa.googolplex_theater.DeviceConfig.DeviceInfo;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class DeviceConfigDiffTest {
+
+    private static DeviceInfo device(String name, String url) {
+        ObjectNode settings = MapperUtil.MAPPER.createObjectNode().put("url", url);
+        return new DeviceInfo(name, settings);
+    }
+
+    private static Map<String, DeviceInfo> current(DeviceInfo... devices) {
+        Map<String, DeviceInfo> out = new LinkedHashMap<>();
+        for (DeviceInfo device : devices) {
+            out.put(device.getName(), device);
+        }
+        return out;
+    }
+
+    @Test
+    void unchangedTest() {
+        Map<String, DeviceInfo> current = current(device("a", "https://a/"), device("b", "https://b/"));
+        // the same configuration parsed again
+        DeviceConfigDiff diff =
+                DeviceConfigDiff.compute(current, List.of(device("b", "https://b/"), device("a", "https://a/")));
+        assertTrue(diff.isEmpty());
+    }
+
+    @Test
+    void changesTest() {
+        Map<String, DeviceInfo> current =
+                current(device("a", "https://a/"), device("b", "https://b/"), device("c", "https://c/"));
+        DeviceInfo changed = device("b", "https://b/changed");
+        DeviceInfo added = device("d", "https://d/");
+        DeviceInfo reprioritized = new DeviceInfo("a", current.get("a").getSettings(), 5);
+        DeviceConfigDiff diff = DeviceConfigDiff.compute(current, List.of(reprioritized, changed, added));
+        assertEquals(List.of(added), diff.getAdded());
+        assertEquals(List.of(reprioritized, changed), diff.getChanged());
+        assertEquals(List.of("c"), diff.getRemoved());
+    }
+
+    @Test
+    void duplicateTest() {
+        Map<String, DeviceInfo> current = current(device("a", "https://a/"), device("b", "https://b/"));
+        // the last one wins, and a duplicate does not hide a removal
+        DeviceInfo last = device("a", "https://a/last");
+        DeviceConfigDiff diff = DeviceConfigDiff.compute(current, List.of(device("a", "https://a/"), last));
+        assertEquals(List.of(), diff.getAdded());
+        assertEquals(List.of(last), diff.getChanged());
+        assertEquals(List.of("b"), diff.getRemoved());
+    }
+}
@@ -6,6 +6,7 @@ package com.jyuzawa.googolplex_theater;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
 import com.google.common.jimfs.Configuration;
 import com.google.common.jimfs.Jimfs;
@@ -18,9 +19,12 @@ import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
@@ -32,7 +36,7 @@ class DeviceConfigLoaderTest {
             "devices:\n  - name: NameOfYourDevice2\n    settings:\n      url: https://example2.com/\n      refreshSeconds: 9600";
 
     private static final String VALUE2 =
-            "devices:\n  - name: NameOfYourDevice2\n    settings:\n      url: https://example2.com/updated\n      refreshSeconds: 600";
+            "devices:\n  - name: NameOfYourDevice2\n    priority: 5\n    settings:\n      url: https://example2.com/updated\n      refreshSeconds: 600";
 
     @Test
     void loaderTest() throws IOException, InterruptedException {
@@ -58,7 +62,7 @@ class DeviceConfigLoaderTest {
                 return null;
             }
         });
-        DeviceConfigLoader loader = new DeviceConfigLoader(controller, conf, devicePath.toString());
+        DeviceConfigLoader loader = new DeviceConfigLoader(controller, conf, devicePath.toString(), false);
         loader.start();
         try {
             DeviceConfig config = queue.take();
@@ -68,6 +72,7 @@ class DeviceConfigLoaderTest {
             assertEquals(
                     "https://example2.com/", device.getSettings().get("url").asText());
             assertEquals(9600, device.getSettings().get("refreshSeconds").asInt());
+            assertEquals(0, device.getPriority());
 
             // see if an update is detected
             try (BufferedWriter bufferedWriter =
@@ -83,6 +88,80 @@ class DeviceConfigLoaderTest {
                     "https://example2.com/updated",
                     device.getSettings().get("url").asText());
             assertEquals(600, device.getSettings().get("refreshSeconds").asInt());
+            assertEquals(5, device.getPriority());
+        } finally {
+            loader.close();
+        }
+    }
+
+    @Test
+    void persistTest() throws Exception {
+        FileSystem fs = Jimfs.newFileSystem(Configuration.unix());
+        Path conf = fs.getPath("/conf");
+        Files.createDirectory(conf);
+        Path devicePath = conf.resolve("devices.yml");
+        Files.writeString(devicePath, VALUE1);
+        DeviceConfig original = MapperUtil.YAML_MAPPER.readValue(VALUE1, DeviceConfig.class);
+        DeviceConfig patched = original.patch(
+                List.of(new DeviceInfo("Added", MapperUtil.MAPPER.createObjectNode().put("url", "https://a/"))),
+                List.of());
+        GoogolplexService service = Mockito.mock(GoogolplexService.class);
+        Mockito.when(service.getDeviceConfig()).thenReturn(patched);
+        DeviceConfigLoader loader = new DeviceConfigLoader(service, conf, devicePath.toString(), true);
+        try {
+            loader.persist().get(1, TimeUnit.MINUTES);
+        } finally {
+            loader.close();
+        }
+        DeviceConfig persisted = MapperUtil.YAML_MAPPER.readValue(Files.readString(devicePath), DeviceConfig.class);
+        assertEquals(patched.getDevices(), persisted.getDevices());
+        // no temporary files are left behind
+        try (Stream<Path> files = Files.list(conf)) {
+            assertEquals(List.of(devicePath), files.toList());
+        }
+    }
+
+    @Test
+    void persistNotReloadedTest() throws Exception {
+        FileSystem fs = Jimfs.newFileSystem(Configuration.unix().toBuilder()
+                .setWatchServiceConfiguration(WatchServiceConfiguration.polling(10, TimeUnit.MILLISECONDS))
+                .build());
+        Path conf = fs.getPath("/conf");
+        Files.createDirectory(conf);
+        Path devicePath = conf.resolve("devices.yml");
+        Files.writeString(devicePath, VALUE1);
+        DeviceConfig original = MapperUtil.YAML_MAPPER.readValue(VALUE1, DeviceConfig.class);
+        DeviceConfig patched1 = original.patch(
+                List.of(new DeviceInfo("Added1", MapperUtil.MAPPER.createObjectNode().put("url", "https://a/"))),
+                List.of());
+        DeviceConfig patched2 = patched1.patch(
+                List.of(new DeviceInfo("Added2", MapperUtil.MAPPER.createObjectNode().put("url", "https://b/"))),
+                List.of());
+        BlockingQueue<DeviceConfig> queue = new ArrayBlockingQueue<>(10);
+        GoogolplexService service = Mockito.mock(GoogolplexService.class);
+        Mockito.when(service.processDeviceConfig(Mockito.any())).then(invocation -> {
+            queue.add(invocation.getArgument(0, DeviceConfig.class));
+            return null;
+        });
+        // two patches in quick succession, each followed by a write
+        Mockito.when(service.getDeviceConfig()).thenReturn(patched1, patched2);
+        DeviceConfigLoader loader = new DeviceConfigLoader(service, conf, devicePath.toString(), true);
+        loader.start();
+        try {
+            assertEquals(original.getDevices(), queue.take().getDevices());
+            CompletableFuture<Void> persist1 = loader.persist();
+            CompletableFuture<Void> persist2 = loader.persist();
+            CompletableFuture.allOf(persist1, persist2).get(1, TimeUnit.MINUTES);
+            // the watcher sees the writes, but they do not revert the patches
+            assertNull(queue.poll(500, TimeUnit.MILLISECONDS));
+            DeviceConfig persisted = MapperUtil.YAML_MAPPER.readValue(Files.readString(devicePath), DeviceConfig.class);
+            assertEquals(patched2.getDevices(), persisted.getDevices());
+
+            // changes made to the file by others are still loaded
+            Files.writeString(devicePath, VALUE2);
+            DeviceConfig config = queue.poll(1, TimeUnit.MINUTES);
+            assertNotNull(config);
+            assertEquals(5, config.getDevices().get(0).getPriority());
         } finally {
             loader.close();
         }
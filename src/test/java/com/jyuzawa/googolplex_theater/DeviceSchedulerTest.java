@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.jyuzawa.googolplex_theater.DeviceConfig.Schedule;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class DeviceSchedulerTest {
+
+    private static final Instant START = Instant.parse("2026-01-01T00:00:30Z");
+    private static final Schedule EVERY_MINUTE = new Schedule("0 * * * * *", null);
+
+    private static DeviceScheduler newScheduler(Duration jitter, List<String> runs) {
+        return new DeviceScheduler(jitter, ZoneOffset.UTC, Runnable::run, (name, schedule) -> runs.add(name));
+    }
+
+    @Test
+    void runDueTest() {
+        List<String> runs = new ArrayList<>();
+        DeviceScheduler scheduler = newScheduler(Duration.ZERO, runs);
+        try {
+            scheduler.update("a", List.of(EVERY_MINUTE), START);
+            assertEquals(Instant.parse("2026-01-01T00:01:00Z"), scheduler.getNextRun());
+            scheduler.runDue(Instant.parse("2026-01-01T00:00:59Z"));
+            assertEquals(List.of(), runs);
+            scheduler.runDue(Instant.parse("2026-01-01T00:01:00Z"));
+            assertEquals(List.of("a"), runs);
+            assertEquals(Instant.parse("2026-01-01T00:02:00Z"), scheduler.getNextRun());
+            // missed runs are not repeated
+            scheduler.runDue(Instant.parse("2026-01-01T00:10:30Z"));
+            assertEquals(List.of("a", "a"), runs);
+            assertEquals(Instant.parse("2026-01-01T00:11:00Z"), scheduler.getNextRun());
+        } finally {
+            scheduler.close();
+        }
+    }
+
+    @Test
+    void jitterTest() {
+        List<String> runs = new ArrayList<>();
+        Duration jitter = Duration.ofSeconds(10);
+        DeviceScheduler scheduler = newScheduler(jitter, runs);
+        try {
+            Set<Long> offsets = new HashSet<>();
+            for (int i = 0; i < 100; i++) {
+                String name = "device" + i;
+                long offset = scheduler.getOffsetMillis(name, EVERY_MINUTE);
+                assertTrue(offset >= 0 && offset < jitter.toMillis());
+                assertEquals(offset, scheduler.getOffsetMillis(name, EVERY_MINUTE));
+                offsets.add(offset);
+                scheduler.update(name, List.of(EVERY_MINUTE), START);
+            }
+            // the devices do not all run at the same instant
+            assertTrue(offsets.size() > 90);
+            Instant due = Instant.parse("2026-01-01T00:01:00Z");
+            assertEquals(due.plusMillis(offsets.stream().min(Long::compare).get()), scheduler.getNextRun());
+            scheduler.runDue(due.plusSeconds(5));
+            assertTrue(runs.size() > 25 && runs.size() < 75);
+            scheduler.runDue(due.plus(jitter));
+            assertEquals(100, runs.size());
+        } finally {
+            scheduler.close();
+        }
+    }
+
+    @Test
+    void updateTest() {
+        List<String> runs = new ArrayList<>();
+        DeviceScheduler scheduler = newScheduler(Duration.ZERO, runs);
+        try {
+            scheduler.update("a", List.of(EVERY_MINUTE), START);
+            // unchanged schedules keep their place
+            scheduler.update("a", List.of(new Schedule("0 * * * * *", null)), START.plusSeconds(60));
+            assertEquals(Instant.parse("2026-01-01T00:01:00Z"), scheduler.getNextRun());
+            scheduler.update("a", List.of(new Schedule("@hourly", null)), START);
+            assertEquals(1, scheduler.size());
+            assertEquals(Instant.parse("2026-01-01T01:00:00Z"), scheduler.getNextRun());
+            scheduler.update("a", List.of(), START);
+            assertNull(scheduler.getNextRun());
+            scheduler.runDue(START.plus(Duration.ofDays(1)));
+            assertEquals(List.of(), runs);
+        } finally {
+            scheduler.close();
+        }
+    }
+
+    @Test
+    void invalidTest() {
+        assertThrows(IllegalArgumentException.class, () -> new Schedule("not a cron", null));
+        assertThrows(IllegalArgumentException.class, () -> new Schedule(null, null));
+    }
+}
@@ -8,6 +8,7 @@ import static org.junit.jupiter.api.Assertions.fail;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.jyuzawa.googolplex_theater.DeviceConfig.DeviceInfo;
 import com.jyuzawa.googolplex_theater.protobuf.Wire.CastMessage;
@@ -33,10 +34,13 @@ import io.netty.handler.ssl.util.SelfSignedCertificate;
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
@@ -52,14 +56,25 @@ public class FakeCast implements Closeable {
     private volatile Channel channel;
     private final NioEventLoopGroup bossGroup;
     private final BlockingQueue<CastMessage> queue;
-    private final int port;
+    final int port;
     public final String name;
     String custom;
     public boolean pongable;
+    volatile String loadedFingerprint;
+    volatile JsonNode loadedSettings;
+    /** How far the clock of the fake is ahead of the real one. */
+    volatile long clockOffsetMillis;
+    /** Whether settings can be staged, otherwise the requests go unanswered. */
+    volatile boolean stageable = true;
+    /** When the last commit was scheduled for, in terms of the clock of the fake. */
+    volatile long committedAt;
+    private final Map<String, JsonNode> staged = new ConcurrentHashMap<>();
 
+    /**
+     * @param workerGroup the event loops for the connections
+     * @param port the port to listen on, or 0 for any free port
+     */
     public FakeCast(EventLoopGroup workerGroup, int port) throws Exception {
-        this.port = port;
-        this.name = "FakeCastOnPort" + port;
         this.queue = new LinkedBlockingDeque<>();
         this.bossGroup = new NioEventLoopGroup(1);
         ServerBootstrap serverBootstrap = new ServerBootstrap();
@@ -83,6 +98,8 @@ public class FakeCast implements Closeable {
                     }
                 });
         this.serverChannel = serverBootstrap.bind(port).syncUninterruptibly().channel();
+        this.port = ((InetSocketAddress) serverChannel.localAddress()).getPort();
+        this.name = "FakeCastOnPort" + this.port;
         this.custom = String.valueOf(ThreadLocalRandom.current().nextInt());
     }
 
@@ -112,6 +129,11 @@ public class FakeCast implements Closeable {
         bossGroup.shutdownGracefully(100, 100, TimeUnit.MILLISECONDS).syncUninterruptibly();
     }
 
+    /** Forget the messages which were received so far. */
+    public void clearMessages() {
+        queue.clear();
+    }
+
     public CastMessage getMessage() throws InterruptedException {
         CastMessage message = queue.poll(10, TimeUnit.SECONDS);
         if (message == null) {
@@ -157,7 +179,7 @@ public class FakeCast implements Closeable {
         {
             ReceiverResponse.Status status = new ReceiverResponse.Status(Collections.emptyList());
             ReceiverResponse response =
-                    new ReceiverResponse(1, ReceiverResponse.TYPE_RECEIVER_STATUS, status, "BROKEN");
+                    new ReceiverResponse(0, ReceiverResponse.TYPE_RECEIVER_STATUS, status, "BROKEN");
             CastMessage launchedMessage = GoogolplexClient.generateMessage(
                     GoogolplexClient.NAMESPACE_RECEIVER, GoogolplexClient.DEFAULT_RECEIVER_ID, "*", response);
             channel.writeAndFlush(launchedMessage);
@@ -165,7 +187,7 @@ public class FakeCast implements Closeable {
         // empty application update
         {
             ReceiverResponse.Status status = new ReceiverResponse.Status(Collections.emptyList());
-            ReceiverResponse response = new ReceiverResponse(1, ReceiverResponse.TYPE_RECEIVER_STATUS, status, null);
+            ReceiverResponse response = new ReceiverResponse(0, ReceiverResponse.TYPE_RECEIVER_STATUS, status, null);
             CastMessage launchedMessage = GoogolplexClient.generateMessage(
                     GoogolplexClient.NAMESPACE_RECEIVER, GoogolplexClient.DEFAULT_RECEIVER_ID, "*", response);
             channel.writeAndFlush(launchedMessage);
@@ -173,10 +195,13 @@ public class FakeCast implements Closeable {
     }
 
     public void loadIdleScreen() throws IOException {
+        // the receiver application is gone, and so is its content
+        loadedFingerprint = null;
+        loadedSettings = null;
         ReceiverResponse.Application application =
                 new ReceiverResponse.Application("HOME", true, FakeCast.class.toString());
         ReceiverResponse.Status status = new ReceiverResponse.Status(Collections.singletonList(application));
-        ReceiverResponse response = new ReceiverResponse(1, ReceiverResponse.TYPE_RECEIVER_STATUS, status, null);
+        ReceiverResponse response = new ReceiverResponse(0, ReceiverResponse.TYPE_RECEIVER_STATUS, status, null);
         CastMessage idleMessage = GoogolplexClient.generateMessage(
                 GoogolplexClient.NAMESPACE_RECEIVER, GoogolplexClient.DEFAULT_RECEIVER_ID, "*", response);
         channel.writeAndFlush(idleMessage);
@@ -210,19 +235,92 @@ public class FakeCast implements Closeable {
                     ReceiverResponse.Status status =
                             new ReceiverResponse.Status(Collections.singletonList(application));
                     ReceiverResponse response =
-                            new ReceiverResponse(1, ReceiverResponse.TYPE_RECEIVER_STATUS, status, null);
+                            new ReceiverResponse(requestId(msg), ReceiverResponse.TYPE_RECEIVER_STATUS, status, null);
                     CastMessage launchedMessage = GoogolplexClient.generateMessage(
                             GoogolplexClient.NAMESPACE_RECEIVER,
                             GoogolplexClient.DEFAULT_RECEIVER_ID,
                             msg.getSourceId(),
                             response);
                     channel.writeAndFlush(launchedMessage);
+                    queue.add(msg);
+                    break;
                 case GoogolplexClient.NAMESPACE_CUSTOM:
+                    JsonNode payload = MapperUtil.MAPPER.readTree(msg.getPayloadUtf8());
+                    if (handleScheduling(msg, payload)) {
+                        queue.add(msg);
+                        break;
+                    }
+                    String fingerprint = payload.path("fingerprint").asText(null);
+                    JsonNode settings = payload.get("settings");
+                    boolean loaded = settings != null || (fingerprint != null && fingerprint.equals(loadedFingerprint));
+                    if (settings != null) {
+                        loadedFingerprint = fingerprint;
+                        loadedSettings = settings;
+                    }
+                    // report what is loaded, like our receiver application
+                    Map<String, Object> loadedResponse = new HashMap<>();
+                    loadedResponse.put("type", GoogolplexClient.TYPE_LOADED);
+                    loadedResponse.put("requestId", requestId(msg));
+                    loadedResponse.put("fingerprint", loadedFingerprint);
+                    loadedResponse.put("renderMillis", settings == null ? null : 1);
+                    CastMessage loadedMessage = GoogolplexClient.generateMessage(
+                            GoogolplexClient.NAMESPACE_CUSTOM,
+                            msg.getDestinationId(),
+                            msg.getSourceId(),
+                            loadedResponse);
+                    channel.writeAndFlush(loadedMessage);
+                    // only keep the messages which resulted in content being shown
+                    if (loaded) {
+                        queue.add(msg);
+                    }
+                    break;
                 default:
                     queue.add(msg);
                     break;
             }
         }
+
+        /**
+         * Handle the messages used to schedule a switch, like our receiver application.
+         *
+         * @return whether the message was one of them
+         */
+        private boolean handleScheduling(CastMessage msg, JsonNode payload) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("requestId", payload.path("requestId").asInt());
+            switch (payload.path("type").asText()) {
+                case GoogolplexClient.TYPE_TIME:
+                    response.put("type", GoogolplexClient.TYPE_TIME);
+                    response.put("time", System.currentTimeMillis() + clockOffsetMillis);
+                    break;
+                case GoogolplexClient.TYPE_STAGE:
+                    if (!stageable) {
+                        return true;
+                    }
+                    staged.put(payload.get("stageId").asText(), payload.get("settings"));
+                    response.put("type", "STAGED");
+                    break;
+                case GoogolplexClient.TYPE_COMMIT:
+                    committedAt = payload.get("at").asLong();
+                    JsonNode settings = staged.remove(payload.get("stageId").asText());
+                    if (settings != null) {
+                        // the fake switches right away
+                        loadedFingerprint = null;
+                        loadedSettings = settings;
+                    }
+                    response.put("type", "COMMITTED");
+                    break;
+                default:
+                    return false;
+            }
+            channel.writeAndFlush(GoogolplexClient.generateMessage(
+                    GoogolplexClient.NAMESPACE_CUSTOM, msg.getDestinationId(), msg.getSourceId(), response));
+            return true;
+        }
+
+        private int requestId(CastMessage msg) throws IOException {
+            return MapperUtil.MAPPER.readTree(msg.getPayloadUtf8()).path("requestId").asInt();
+        }
     }
 
     public boolean isConnected() {
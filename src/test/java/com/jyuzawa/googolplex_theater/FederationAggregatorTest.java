@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+class FederationAggregatorTest {
+
+    private static final String FEED = "event:status\ndata:[{\"name\":\"b\",\"uptime\":\"1s\",\"owner\":\"x\"},"
+            + "{\"name\":\"a\",\"ipAddress\":\"10.0.0.1\",\"tags\":[\"lobby\"]}]\n\n";
+
+    @Test
+    void parseSitesTest() {
+        assertEquals(
+                List.of(
+                        new FederationAggregator.Site("example.com", "http://example.com:8080"),
+                        new FederationAggregator.Site("nyc", "http://nyc.example.com")),
+                FederationAggregator.parseSites(
+                        List.of("nyc = http://nyc.example.com/", "", "http://example.com:8080")));
+        assertThrows(IllegalArgumentException.class, () -> FederationAggregator.parseSites(List.of("=http://a/")));
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> FederationAggregator.parseSites(List.of("a=http://a/", "http://b/", "a=http://c/")));
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> FederationAggregator.parseSites(List.of("http://a/", "a=http://b/")));
+    }
+
+    @Test
+    void aggregateTest() throws Exception {
+        WebClient.Builder builder = WebClient.builder().exchangeFunction(request -> {
+            if (request.url().getHost().equals("down")) {
+                return Mono.error(new IOException("unreachable"));
+            }
+            return Mono.just(ClientResponse.create(HttpStatus.OK)
+                    .header(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_EVENT_STREAM_VALUE)
+                    .body(FEED)
+                    .build());
+        });
+        FederationAggregator aggregator = new FederationAggregator(
+                builder, List.of("up=http://up", "down=http://down"), Duration.ofMinutes(1), Duration.ofMillis(10));
+        assertTrue(aggregator.isEnabled());
+        aggregator.start();
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            FederatedStatus status;
+            while ((status = aggregator.getStatus()).getDevices().isEmpty()
+                    || status.getSites().get(0).getError() == null) {
+                assertTrue(System.nanoTime() < deadline, "feed not received in time");
+                Thread.sleep(10);
+            }
+            // the sites are sorted by name
+            FederatedStatus.Site down = status.getSites().get(0);
+            assertEquals("down", down.getName());
+            assertTrue(down.isStale());
+            assertNull(down.getUpdated());
+            assertNotNull(down.getError());
+            assertEquals(0, down.getDevices());
+            FederatedStatus.Site up = status.getSites().get(1);
+            assertEquals("up", up.getName());
+            assertFalse(up.isStale());
+            assertEquals(2, up.getDevices());
+            // the devices are sorted by name
+            assertEquals(2, status.getDevices().size());
+            FederatedStatus.Device a = status.getDevices().get(0);
+            assertEquals("up", a.getSite());
+            assertEquals("a", a.getStatus().getName());
+            assertEquals("10.0.0.1", a.getStatus().getIpAddress());
+            assertEquals(Set.of("lobby"), a.getStatus().getTags());
+            FederatedStatus.Device b = status.getDevices().get(1);
+            assertEquals("b", b.getStatus().getName());
+            assertEquals("x", b.getStatus().getOwner());
+        } finally {
+            aggregator.close();
+        }
+    }
+}
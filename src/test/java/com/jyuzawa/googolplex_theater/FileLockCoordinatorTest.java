@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FileLockCoordinatorTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void membershipTest() throws Exception {
+        Duration lease = Duration.ofMinutes(1);
+        FileLockCoordinator a = new FileLockCoordinator(directory, "a", lease);
+        FileLockCoordinator b = new FileLockCoordinator(directory, "b", lease);
+        assertEquals(List.of("a"), a.renew());
+        assertEquals(List.of("a", "b"), b.renew());
+        // renewing keeps the order in which they joined
+        assertEquals(List.of("a", "b"), a.renew());
+        b.close();
+        assertEquals(List.of("a"), a.renew());
+        a.close();
+    }
+
+    @Test
+    void expiryTest() throws Exception {
+        FileLockCoordinator a = new FileLockCoordinator(directory, "a", Duration.ofMinutes(1));
+        FileLockCoordinator b = new FileLockCoordinator(directory, "b", Duration.ofMillis(1));
+        assertEquals(List.of("b"), b.renew());
+        Thread.sleep(10);
+        // the lease of b was not renewed in time
+        assertEquals(List.of("a"), a.renew());
+    }
+
+    @Test
+    void corruptTest() throws Exception {
+        Files.writeString(directory.resolve("members.json"), "{not json");
+        FileLockCoordinator a = new FileLockCoordinator(directory, "a", Duration.ofMinutes(1));
+        assertEquals(List.of("a"), a.renew());
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import org.junit.jupiter.api.Test;
+
+class FingerprintUtilTest {
+
+    private static String fingerprint(String json) throws Exception {
+        return FingerprintUtil.fingerprint(MapperUtil.MAPPER.readTree(json));
+    }
+
+    @Test
+    void fingerprintTest() throws Exception {
+        String fingerprint = fingerprint("{\"url\":\"https://example.com/\",\"refreshSeconds\":180,\"list\":[1,2]}");
+        assertEquals(32, fingerprint.length());
+        // field order does not matter
+        assertEquals(
+                fingerprint, fingerprint("{\"list\":[1,2],\"refreshSeconds\":180,\"url\":\"https://example.com/\"}"));
+        // everything else does
+        assertNotEquals(
+                fingerprint, fingerprint("{\"url\":\"https://example.com/\",\"refreshSeconds\":180,\"list\":[2,1]}"));
+        assertNotEquals(
+                fingerprint,
+                fingerprint("{\"url\":\"https://example.com/\",\"refreshSeconds\":\"180\",\"list\":[1,2]}"));
+        assertNotEquals(fingerprint("{\"ab\":\"c\"}"), fingerprint("{\"a\":\"bc\"}"));
+        assertNotEquals(fingerprint("{\"a\":null}"), fingerprint("{}"));
+        assertEquals(FingerprintUtil.fingerprint(null), FingerprintUtil.fingerprint(null));
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.jyuzawa.googolplex_theater.protobuf.Wire.CastMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import reactor.core.Disposable;
+
+@Slf4j
+class GoogolplexClientTest {
+    private static final int DEVICES = 8;
+
+    /** The settings of the low-memory profile. */
+    private static ClientProperties lowMemory() {
+        return TestProperties.client()
+                .tlsSessionCacheSize(64)
+                .bufferArenas(1)
+                .bufferChunkSize(DataSize.ofKilobytes(512))
+                .maxFrameLength(DataSize.ofKilobytes(64))
+                .deviceHistograms(false)
+                .build();
+    }
+
+    @Test
+    void heapPerDeviceTest() throws Exception {
+        EventLoopGroup workerGroup = new NioEventLoopGroup(1);
+        List<FakeCast> casts = new ArrayList<>();
+        try (GoogolplexClient client =
+                new GoogolplexClient(lowMemory(), TestProperties.heartbeat().build(), new SimpleMeterRegistry())) {
+            for (int i = 0; i < DEVICES; i++) {
+                casts.add(new FakeCast(workerGroup, 0));
+            }
+            long before = usedHeap();
+            List<Disposable> connections = new ArrayList<>();
+            for (FakeCast cast : casts) {
+                InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), cast.port);
+                connections.add(client.connect(address, cast.device(), new ChannelState()).subscribe());
+            }
+            for (FakeCast cast : casts) {
+                CastMessage message;
+                do {
+                    message = cast.getMessage();
+                } while (!GoogolplexClient.NAMESPACE_CUSTOM.equals(message.getNamespace()));
+            }
+            long after = usedHeap();
+            for (Disposable connection : connections) {
+                connection.dispose();
+            }
+            // this includes the fake devices, so it is an upper bound
+            long perDevice = Math.max(0, after - before) / DEVICES;
+            log.info("HEAP devices={} perDevice={}KB", DEVICES, perDevice / 1024);
+            assertTrue(perDevice < 512 * 1024, "heap per device " + perDevice);
+        } finally {
+            for (FakeCast cast : casts) {
+                cast.close();
+            }
+            workerGroup.shutdownGracefully(100, 100, TimeUnit.MILLISECONDS).syncUninterruptibly();
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -5,18 +5,31 @@
 package com.jyuzawa.googolplex_theater;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.jyuzawa.googolplex_theater.DeviceConfig.DeviceInfo;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
+import java.io.IOException;
 import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 import javax.jmdns.ServiceEvent;
 import javax.jmdns.ServiceInfo;
 import org.junit.jupiter.api.AfterAll;
@@ -41,7 +54,7 @@ class GoogolplexServiceTest {
         client = Mockito.mock(GoogolplexClient.class);
         Mockito.when(client.connect(Mockito.any(), Mockito.any(), Mockito.any()))
                 .thenReturn(Mono.empty());
-        service = new GoogolplexService(client);
+        service = newService(client);
         cast1 = new FakeCast(workerGroup, 9001);
         cast2 = new FakeCast(workerGroup, 9002);
         cast3 = new FakeCast(workerGroup, 9003);
@@ -104,6 +117,369 @@ class GoogolplexServiceTest {
         assertTrue(unconfigureds.contains("UnknownCast"));
     }
 
+    @Test
+    void probeTest() throws Exception {
+        GoogolplexClient probeClient = Mockito.mock(GoogolplexClient.class);
+        Mockito.when(probeClient.connect(Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(Mono.never());
+        AtomicBoolean alive = new AtomicBoolean();
+        Mockito.when(probeClient.probe(Mockito.any())).thenAnswer(invocation -> Mono.fromSupplier(alive::get));
+        GoogolplexService probeService = newService(probeClient);
+        try {
+            probeService
+                    .processDeviceConfig(new DeviceConfig(List.of(cast1.device()), null))
+                    .get();
+            probeService.register(cast1.event()).get();
+            Mockito.verify(probeClient).connect(Mockito.any(), Mockito.eq(cast1.device()), Mockito.any());
+            probeService.unregister(cast1.event()).get();
+            waitFor(() -> isDormant(probeService, cast1.name));
+            // config changes do not connect to dormant devices
+            probeService.refresh(cast1.name).get();
+            Mockito.verify(probeClient).connect(Mockito.any(), Mockito.eq(cast1.device()), Mockito.any());
+            alive.set(true);
+            waitFor(() -> !isDormant(probeService, cast1.name));
+            Mockito.verify(probeClient, Mockito.timeout(1000).times(2))
+                    .connect(Mockito.any(), Mockito.eq(cast1.device()), Mockito.any());
+            // service discovery also wakes the device
+            alive.set(false);
+            probeService.unregister(cast1.event()).get();
+            waitFor(() -> isDormant(probeService, cast1.name));
+            probeService.register(cast1.event()).get();
+            assertFalse(isDormant(probeService, cast1.name));
+            Mockito.verify(probeClient, Mockito.times(3))
+                    .connect(Mockito.any(), Mockito.eq(cast1.device()), Mockito.any());
+        } finally {
+            probeService.close();
+        }
+    }
+
+    @Test
+    void tagTest() throws Exception {
+        GoogolplexClient tagClient = Mockito.mock(GoogolplexClient.class);
+        Mockito.when(tagClient.connect(Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(Mono.never());
+        GoogolplexService tagService = newService(tagClient);
+        try {
+            DeviceInfo device1 = new DeviceInfo(cast1.name, null, 0, List.of("lobby", "floor-3"));
+            DeviceInfo device2 = new DeviceInfo(cast2.name, null, 0, List.of("floor-3"));
+            tagService
+                    .processDeviceConfig(new DeviceConfig(List.of(device1, device2), null))
+                    .get();
+            tagService.register(cast1.event()).get();
+            tagService.register(cast2.event()).get();
+            assertEquals(Set.of(cast1.name, cast2.name), tagService.getTagged("floor-3"));
+            assertEquals(Set.of(cast1.name), tagService.getTagged("lobby"));
+            assertEquals(Set.of(), tagService.getTagged("unknown"));
+
+            // only the devices with the tag are refreshed
+            tagService.refreshTagged("lobby").get();
+            Mockito.verify(tagClient, Mockito.times(2)).connect(Mockito.any(), Mockito.eq(device1), Mockito.any());
+            Mockito.verify(tagClient, Mockito.times(1)).connect(Mockito.any(), Mockito.eq(device2), Mockito.any());
+
+            // changing only the tags does not refresh the device
+            DeviceInfo retagged = new DeviceInfo(cast1.name, null, 0, List.of("floor-4"));
+            tagService
+                    .processDeviceConfig(new DeviceConfig(List.of(retagged, device2), null))
+                    .get();
+            Mockito.verify(tagClient, Mockito.never()).connect(Mockito.any(), Mockito.eq(retagged), Mockito.any());
+            assertEquals(Set.of(cast2.name), tagService.getTagged("floor-3"));
+            assertEquals(Set.of(), tagService.getTagged("lobby"));
+            assertEquals(Set.of(cast1.name), tagService.getTagged("floor-4"));
+
+            tagService.processDeviceConfig(new DeviceConfig(List.of(), null)).get();
+            assertEquals(Set.of(), tagService.getTagged("floor-3"));
+            assertEquals(Set.of(), tagService.getTagged("floor-4"));
+        } finally {
+            tagService.close();
+        }
+    }
+
+    @Test
+    void shardTest() throws Exception {
+        GoogolplexClient shardClient = Mockito.mock(GoogolplexClient.class);
+        Mockito.when(shardClient.connect(Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(Mono.never());
+        GoogolplexService shardService = newService(shardClient, "sharded");
+        try {
+            List<FakeCast> casts = List.of(cast1, cast2, cast3, cast4);
+            List<DeviceInfo> devices = new ArrayList<>();
+            for (FakeCast cast : casts) {
+                devices.add(cast.device());
+                shardService.register(cast.event()).get();
+            }
+            shardService.processDeviceConfig(new DeviceConfig(devices, null)).get();
+            // nothing is connected until the members are known
+            Mockito.verify(shardClient, Mockito.never()).connect(Mockito.any(), Mockito.any(), Mockito.any());
+
+            List<String> members = List.of("a", "b");
+            ConsistentHashRing ring = new ConsistentHashRing(members);
+            shardService.updateMembers("a", members).get();
+            int owned = 0;
+            for (FakeCast cast : casts) {
+                boolean isOwned = "a".equals(ring.getOwner(cast.name));
+                Mockito.verify(shardClient, Mockito.times(isOwned ? 1 : 0))
+                        .connect(Mockito.any(), Mockito.eq(cast.device()), Mockito.any());
+                if (isOwned) {
+                    owned++;
+                }
+            }
+            for (DeviceStatus device : shardService.getDeviceInfo()) {
+                assertEquals(ring.getOwner(device.getName()), device.getOwner());
+            }
+
+            // the other member left, so everything is taken over
+            shardService.updateMembers("a", List.of("a")).get();
+            for (FakeCast cast : casts) {
+                Mockito.verify(shardClient).connect(Mockito.any(), Mockito.eq(cast.device()), Mockito.any());
+            }
+            Mockito.verify(shardClient, Mockito.times(casts.size()))
+                    .connect(Mockito.any(), Mockito.any(), Mockito.any());
+            assertTrue(owned > 0 && owned < casts.size());
+        } finally {
+            shardService.close();
+        }
+    }
+
+    @Test
+    void standbyTest() throws Exception {
+        GoogolplexClient standbyClient = Mockito.mock(GoogolplexClient.class);
+        Mockito.when(standbyClient.connect(Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(Mono.never());
+        GoogolplexService standbyService = newService(standbyClient, "standby", 20);
+        try {
+            List<FakeCast> casts = List.of(cast1, cast2, cast3, cast4);
+            List<DeviceInfo> devices = new ArrayList<>();
+            for (FakeCast cast : casts) {
+                devices.add(cast.device());
+                standbyService.register(cast.event()).get();
+            }
+            standbyService.processDeviceConfig(new DeviceConfig(devices, null)).get();
+            standbyService.updateMembers("standby", List.of("active")).get();
+            // the state is warm, but nothing is connected
+            for (DeviceStatus device : standbyService.getDeviceInfo()) {
+                assertEquals("active", device.getOwner());
+                assertNotNull(device.getSettings());
+                assertNotNull(device.getIpAddress());
+            }
+            Mockito.verify(standbyClient, Mockito.never()).connect(Mockito.any(), Mockito.any(), Mockito.any());
+
+            // the active instance went away
+            long start = System.nanoTime();
+            standbyService.updateMembers("standby", List.of("standby")).get();
+            Mockito.verify(standbyClient, Mockito.timeout(5000).times(casts.size()))
+                    .connect(Mockito.any(), Mockito.any(), Mockito.any());
+            // the connections are spread out by the ramp
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(casts.size() * 50));
+            for (DeviceStatus device : standbyService.getDeviceInfo()) {
+                assertEquals("standby", device.getOwner());
+            }
+        } finally {
+            standbyService.close();
+        }
+    }
+
+    @Test
+    void statusTest() throws Exception {
+        GoogolplexClient statusClient = Mockito.mock(GoogolplexClient.class);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        JsonNode answer = MapperUtil.MAPPER.createObjectNode().set("status", MapperUtil.MAPPER.createObjectNode());
+        Map<String, GoogolplexClient.GoogolplexConnection> connections = new HashMap<>();
+        for (FakeCast cast : List.of(cast1, cast2, cast3, cast4)) {
+            // the last device never answers, and the others answer slowly
+            Mono<JsonNode> response =
+                    cast == cast4 ? Mono.never() : Mono.delay(Duration.ofMillis(100)).thenReturn(answer);
+            Mono<JsonNode> tracked = Mono.defer(() -> {
+                        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                        return response;
+                    })
+                    .doFinally(signal -> inFlight.decrementAndGet());
+            connections.put(cast.name, mockConnection(tracked));
+        }
+        connectWith(statusClient, connections);
+        GoogolplexService statusService = new GoogolplexService(
+                statusClient,
+                TestProperties.service()
+                        .statusDeadline(Duration.ofMillis(500))
+                        .statusConcurrency(3)
+                        .build(),
+                TestProperties.cluster().build());
+        try {
+            List<DeviceInfo> devices = new ArrayList<>();
+            for (FakeCast cast : List.of(cast1, cast2, cast3, cast4)) {
+                devices.add(cast.device());
+                statusService.register(cast.event()).get();
+            }
+            // this device is configured, but was never found
+            devices.add(new DeviceInfo("MissingCast", null));
+            statusService.processDeviceConfig(new DeviceConfig(devices, null)).get();
+
+            FleetStatus status = statusService.queryStatus().block();
+            // the report is cut off at the deadline, with the answers so far
+            assertEquals(3, status.getAnswered());
+            assertTrue(status.getElapsedMillis() >= 500, "elapsed " + status.getElapsedMillis());
+            assertTrue(status.getElapsedMillis() < 2000, "elapsed " + status.getElapsedMillis());
+            // the devices are queried at once, but not more than allowed
+            assertEquals(3, maxInFlight.get());
+            Map<String, FleetStatus.Result> results = new HashMap<>();
+            for (FleetStatus.Device device : status.getDevices()) {
+                results.put(device.getName(), device.getResult());
+            }
+            assertEquals(
+                    Map.of(
+                            cast1.name, FleetStatus.Result.ANSWERED,
+                            cast2.name, FleetStatus.Result.ANSWERED,
+                            cast3.name, FleetStatus.Result.ANSWERED,
+                            cast4.name, FleetStatus.Result.TIMEOUT,
+                            "MissingCast", FleetStatus.Result.DISCONNECTED),
+                    results);
+        } finally {
+            statusService.close();
+        }
+    }
+
+    @Test
+    void broadcastTest() throws Exception {
+        GoogolplexClient broadcastClient = Mockito.mock(GoogolplexClient.class);
+        ByteBuf payload = Unpooled.copiedBuffer("broadcast", StandardCharsets.UTF_8);
+        Mockito.when(broadcastClient.encodeBroadcast(Mockito.any())).thenReturn(payload);
+        Map<String, GoogolplexClient.GoogolplexConnection> connections = new HashMap<>();
+        List<ByteBuf> sent = new CopyOnWriteArrayList<>();
+        for (FakeCast cast : List.of(cast1, cast2)) {
+            GoogolplexClient.GoogolplexConnection connection = mockConnection(Mono.never());
+            Mockito.when(connection.sendShared(Mockito.any())).thenAnswer(invocation -> {
+                sent.add(invocation.getArgument(0));
+                return Mono.empty();
+            });
+            connections.put(cast.name, connection);
+        }
+        // the write fails
+        GoogolplexClient.GoogolplexConnection failing = mockConnection(Mono.never());
+        Mockito.when(failing.sendShared(Mockito.any())).thenReturn(Mono.error(new IOException("closed")));
+        connections.put(cast3.name, failing);
+        // the application went down just before the send
+        GoogolplexClient.GoogolplexConnection dropped = mockConnection(Mono.never());
+        Mockito.when(dropped.sendShared(Mockito.any())).thenThrow(new IllegalStateException("down"));
+        connections.put(cast4.name, dropped);
+        connectWith(broadcastClient, connections);
+        GoogolplexService broadcastService = newService(broadcastClient);
+        try {
+            List<DeviceInfo> devices = new ArrayList<>();
+            for (FakeCast cast : List.of(cast1, cast2, cast3, cast4)) {
+                devices.add(cast.device());
+                broadcastService.register(cast.event()).get();
+            }
+            devices.add(new DeviceInfo("MissingCast", null));
+            broadcastService.processDeviceConfig(new DeviceConfig(devices, null)).get();
+
+            JsonNode settings = MapperUtil.MAPPER.createObjectNode().put("url", "https://example.com/");
+            BroadcastResult result = broadcastService.broadcast(null, null, settings).block();
+            assertEquals(2, result.getDelivered());
+            Map<String, BroadcastResult.Delivery> deliveries = new HashMap<>();
+            for (BroadcastResult.Device device : result.getDevices()) {
+                deliveries.put(device.getName(), device.getDelivery());
+            }
+            assertEquals(
+                    Map.of(
+                            cast1.name, BroadcastResult.Delivery.DELIVERED,
+                            cast2.name, BroadcastResult.Delivery.DELIVERED,
+                            cast3.name, BroadcastResult.Delivery.FAILED,
+                            cast4.name, BroadcastResult.Delivery.FAILED,
+                            "MissingCast", BroadcastResult.Delivery.NOT_CONNECTED),
+                    deliveries);
+            // the payload was serialized once, shared, and released once everything was sent
+            Mockito.verify(broadcastClient).encodeBroadcast(settings);
+            assertEquals(List.of(payload, payload), sent);
+            assertEquals(0, payload.refCnt());
+        } finally {
+            broadcastService.close();
+        }
+    }
+
+    private static GoogolplexClient.GoogolplexConnection mockConnection(Mono<JsonNode> status) {
+        GoogolplexClient.GoogolplexConnection connection = Mockito.mock(GoogolplexClient.GoogolplexConnection.class);
+        Mockito.when(connection.isUp()).thenReturn(true);
+        Mockito.when(connection.getStatus(Mockito.any())).thenReturn(status);
+        return connection;
+    }
+
+    /**
+     * Have the client hand out the given connections, as if each device was connected right away.
+     */
+    private static void connectWith(
+            GoogolplexClient client, Map<String, GoogolplexClient.GoogolplexConnection> connections) {
+        Mockito.when(client.connect(Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenAnswer(invocation -> {
+                    DeviceInfo deviceInfo = invocation.getArgument(1);
+                    ChannelState state = invocation.getArgument(2);
+                    state.setConnection(connections.get(deviceInfo.getName()));
+                    return Mono.never();
+                });
+    }
+
+    @Test
+    void probeDelayTest() {
+        assertEquals(Duration.ofMillis(10), service.getProbeDelay(1));
+        assertEquals(Duration.ofMillis(10), service.getProbeDelay(2));
+        assertEquals(Duration.ofMillis(20), service.getProbeDelay(3));
+        assertEquals(Duration.ofMillis(40), service.getProbeDelay(4));
+        assertEquals(Duration.ofMillis(50), service.getProbeDelay(5));
+        assertEquals(Duration.ofMillis(50), service.getProbeDelay(100));
+    }
+
+    @Test
+    void byPriorityTest() {
+        DeviceInfo low = new DeviceInfo("low", null, -1);
+        DeviceInfo first = new DeviceInfo("first", null);
+        DeviceInfo high = new DeviceInfo("high", null, 10);
+        DeviceInfo second = new DeviceInfo("second", null, 0);
+        assertEquals(
+                List.of(high, first, second, low), GoogolplexService.byPriority(List.of(low, first, high, second)));
+    }
+
+    @Test
+    void retryIntervalTest() {
+        Duration retryInterval = Duration.ofSeconds(12);
+        assertEquals(Duration.ofSeconds(12), GoogolplexClient.getRetryInterval(retryInterval, 0));
+        assertEquals(Duration.ofSeconds(4), GoogolplexClient.getRetryInterval(retryInterval, 2));
+        assertEquals(Duration.ofSeconds(24), GoogolplexClient.getRetryInterval(retryInterval, -1));
+    }
+
+    private static GoogolplexService newService(GoogolplexClient client) {
+        return newService(client, "standalone");
+    }
+
+    private static GoogolplexService newService(GoogolplexClient client, String clusterMode) {
+        return newService(client, clusterMode, 0);
+    }
+
+    private static GoogolplexService newService(GoogolplexClient client, String clusterMode, int clusterRampRate) {
+        return new GoogolplexService(
+                client,
+                TestProperties.service().build(),
+                TestProperties.cluster()
+                        .clusterMode(clusterMode)
+                        .clusterRampRate(clusterRampRate)
+                        .build());
+    }
+
+    private static boolean isDormant(GoogolplexService service, String name) {
+        for (DeviceStatus device : service.getDeviceInfo()) {
+            if (device.getName().equals(name)) {
+                return device.isDormant();
+            }
+        }
+        return false;
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "condition not met in time");
+            Thread.sleep(10);
+        }
+    }
+
     private Set<String> getUnconfigureds(List<DeviceStatus> devices) {
         Set<String> out = new HashSet<>();
         for (DeviceStatus device : devices) {
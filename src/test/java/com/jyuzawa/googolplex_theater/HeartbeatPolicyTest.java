@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+
+class HeartbeatPolicyTest {
+
+    private static final Duration INTERVAL = Duration.ofSeconds(5);
+    private static final Duration MAX_INTERVAL = Duration.ofSeconds(15);
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    private static long millis(long millis) {
+        return Duration.ofMillis(millis).toNanos();
+    }
+
+    private static void stable(HeartbeatPolicy policy, ChannelState state, int times) {
+        for (int i = 0; i < times; i++) {
+            policy.record(state, true);
+        }
+    }
+
+    @Test
+    void adaptiveTest() {
+        HeartbeatPolicy policy = new HeartbeatPolicy(INTERVAL, MAX_INTERVAL, TIMEOUT, true);
+        ChannelState state = new ChannelState();
+        assertEquals(INTERVAL, policy.getInterval(state));
+        stable(policy, state, HeartbeatPolicy.STABLE_HEARTBEATS - 1);
+        assertEquals(INTERVAL, policy.getInterval(state));
+        stable(policy, state, 1);
+        assertEquals(Duration.ofSeconds(10), policy.getInterval(state));
+        stable(policy, state, HeartbeatPolicy.STABLE_HEARTBEATS);
+        assertEquals(MAX_INTERVAL, policy.getInterval(state));
+        stable(policy, state, HeartbeatPolicy.STABLE_HEARTBEATS);
+        assertEquals(MAX_INTERVAL, policy.getInterval(state));
+        assertEquals(Duration.ofSeconds(50).toNanos(), policy.getTimeoutNanos(MAX_INTERVAL));
+        // a single bad heartbeat goes back to the start
+        policy.record(state, false);
+        assertEquals(INTERVAL, policy.getInterval(state));
+        assertEquals(TIMEOUT.toNanos(), policy.getTimeoutNanos(INTERVAL));
+        assertNull(state.getHeartbeatInterval());
+    }
+
+    @Test
+    void fixedTest() {
+        HeartbeatPolicy policy = new HeartbeatPolicy(INTERVAL, MAX_INTERVAL, TIMEOUT, false);
+        ChannelState state = new ChannelState();
+        stable(policy, state, HeartbeatPolicy.STABLE_HEARTBEATS * 4);
+        assertEquals(INTERVAL, policy.getInterval(state));
+    }
+
+    @Test
+    void stableTest() {
+        ChannelState state = new ChannelState();
+        assertTrue(HeartbeatPolicy.isStable(state, millis(10)));
+        assertFalse(HeartbeatPolicy.isStable(state, millis(500)));
+        for (int i = 0; i < 20; i++) {
+            state.sampleRoundTrip(millis(10));
+        }
+        assertTrue(HeartbeatPolicy.isStable(state, millis(15)));
+        // a spike well beyond the usual deviation is jitter, even if it is fast in absolute terms
+        assertFalse(HeartbeatPolicy.isStable(state, millis(100)));
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.jyuzawa.googolplex_theater.DeviceConfig.DeviceInfo;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class InternedSettingsTest {
+
+    private static ObjectNode settings(String json) throws Exception {
+        return (ObjectNode) MapperUtil.MAPPER.readTree(json);
+    }
+
+    @Test
+    void sharedTest() throws Exception {
+        DeviceConfig config = new DeviceConfig(
+                List.of(
+                        new DeviceInfo("a", settings("{\"url\":\"https://example.com/\"}")),
+                        new DeviceInfo("b", settings("{\"url\":\"https://example.com/\"}")),
+                        new DeviceInfo("c", settings("{\"url\":\"https://example.com/c\"}"))),
+                settings("{\"refreshSeconds\":600}"));
+        DeviceInfo a = config.getDevices().get(0);
+        DeviceInfo b = config.getDevices().get(1);
+        DeviceInfo c = config.getDevices().get(2);
+        assertEquals(a.getSettings(), b.getSettings());
+        assertSame(a.getSettingsJson(), b.getSettingsJson());
+        assertNotSame(a.getSettingsJson(), c.getSettingsJson());
+        assertEquals(MapperUtil.MAPPER.writeValueAsString(a.getSettings()), a.getSettingsJson());
+        assertEquals(600, c.getSettings().get("refreshSeconds").asInt());
+    }
+
+    @Test
+    void equalityTest() throws Exception {
+        DeviceInfo device = new DeviceInfo("a", settings("{\"x\":1,\"y\":[true,null]}"));
+        // the order of the fields does not matter
+        DeviceInfo same = new DeviceInfo("a", settings("{\"y\":[true,null],\"x\":1}"));
+        assertSame(device.getSettingsJson(), same.getSettingsJson());
+        assertEquals(device, same);
+        assertEquals(device.hashCode(), same.hashCode());
+        assertNotEquals(device, new DeviceInfo("a", settings("{\"x\":2,\"y\":[true,null]}")));
+        assertNotEquals(device, new DeviceInfo("b", settings("{\"x\":1,\"y\":[true,null]}")));
+        assertNotEquals(device, new DeviceInfo("a", settings("{\"x\":1,\"y\":[true,null]}"), 1));
+    }
+
+    @Test
+    void mutationTest() throws Exception {
+        ObjectNode original = settings("{\"url\":\"https://example.com/\",\"nested\":{\"x\":1}}");
+        DeviceInfo a = new DeviceInfo("a", original);
+        DeviceInfo b = new DeviceInfo("b", settings("{\"url\":\"https://example.com/\",\"nested\":{\"x\":1}}"));
+        String json = b.getSettingsJson();
+        // neither the tree the device was created from nor the one it hands out are shared
+        original.put("url", "https://example.com/changed");
+        ObjectNode handedOut = a.getSettings();
+        handedOut.put("url", "https://example.com/changed");
+        ((ObjectNode) handedOut.get("nested")).put("x", 2);
+        assertEquals("https://example.com/", b.getSettings().get("url").asText());
+        assertEquals(1, b.getSettings().get("nested").get("x").asInt());
+        assertEquals("https://example.com/", a.getSettings().get("url").asText());
+        assertEquals(json, b.getSettingsJson());
+        assertEquals(a.getFingerprint(), b.getFingerprint());
+    }
+}
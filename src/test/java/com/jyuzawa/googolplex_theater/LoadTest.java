@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.jyuzawa.googolplex_theater.DeviceConfig.DeviceInfo;
+import com.jyuzawa.googolplex_theater.protobuf.Wire.CastMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+
+/**
+ * This harness connects a real client to a fleet of fake devices and reports the cost of doing so.
+ * The costs are only logged, so it is left out of the regular tests and run with the loadTest task.
+ *
+ * @author jyuzawa
+ */
+@Slf4j
+@Tag("load")
+class LoadTest {
+    private static final int DEVICES = 16;
+
+    static EventLoopGroup workerGroup;
+    static List<FakeCast> casts;
+    static SimpleMeterRegistry meterRegistry;
+    static GoogolplexClient client;
+
+    @BeforeAll
+    static void setUpBeforeClass() throws Exception {
+        workerGroup = new NioEventLoopGroup(1);
+        casts = new ArrayList<>();
+        for (int i = 0; i < DEVICES; i++) {
+            casts.add(new FakeCast(workerGroup, 0));
+        }
+        meterRegistry = new SimpleMeterRegistry();
+        client = new GoogolplexClient(
+                TestProperties.client().build(), TestProperties.heartbeat().build(), meterRegistry);
+    }
+
+    @AfterAll
+    static void tearDownAfterClass() throws Exception {
+        client.close();
+        for (FakeCast cast : casts) {
+            cast.close();
+        }
+        workerGroup.shutdownGracefully(100, 100, TimeUnit.MILLISECONDS).syncUninterruptibly();
+    }
+
+    @Test
+    void reconnectTest() throws Exception {
+        int rounds = 3;
+        TlsSessionStats tlsSessionStats = client.getTlsSessionStats();
+        long initialHandshakes = tlsSessionStats.getHandshakes();
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            List<Disposable> connections = connectAll();
+            for (Disposable connection : connections) {
+                connection.dispose();
+            }
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        log.info(
+                "LOAD devices={} rounds={} elapsed={}ms tlsHandshakes={} tlsResumed={} tlsHitRatio={}",
+                DEVICES,
+                rounds,
+                elapsedMillis,
+                tlsSessionStats.getHandshakes(),
+                tlsSessionStats.getResumed(),
+                tlsSessionStats.getHitRatio());
+        assertEquals(DEVICES * rounds, tlsSessionStats.getHandshakes() - initialHandshakes);
+        // each device reported rendering its settings
+        assertEquals(
+                DEVICES,
+                meterRegistry.get(GoogolplexClient.METRIC_CONFIG_TO_PIXELS).timers().size());
+        assertEquals(
+                tlsSessionStats.getHitRatio(),
+                meterRegistry.get(TlsSessionStats.METRIC_HIT_RATIO).gauge().value());
+    }
+
+    @Test
+    void statusTest() throws Exception {
+        GoogolplexService service = newConnectedService();
+        try {
+            FleetStatus status = service.queryStatus().block();
+            log.info(
+                    "STATUS devices={} answered={} elapsed={}ms",
+                    DEVICES,
+                    status.getAnswered(),
+                    status.getElapsedMillis());
+            assertEquals(DEVICES, status.getAnswered());
+            for (FleetStatus.Device device : status.getDevices()) {
+                assertEquals(FleetStatus.Result.ANSWERED, device.getResult());
+                assertNotNull(device.getStatus());
+            }
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    void broadcastTest() throws Exception {
+        GoogolplexService service = newConnectedService();
+        try {
+            ObjectNode settings = MapperUtil.MAPPER.createObjectNode().put("url", "https://example.com/");
+            BroadcastResult result = service.broadcast(null, null, settings).block();
+            log.info(
+                    "BROADCAST devices={} delivered={} elapsed={}ms",
+                    DEVICES,
+                    result.getDelivered(),
+                    result.getElapsedMillis());
+            assertEquals(DEVICES, result.getDelivered());
+            for (FakeCast cast : casts) {
+                CastMessage message = cast.getMessage();
+                assertEquals(GoogolplexClient.NAMESPACE_CUSTOM, message.getNamespace());
+                JsonNode payload = MapperUtil.MAPPER.readTree(message.getPayloadUtf8());
+                assertEquals(GoogolplexClient.TYPE_BROADCAST, payload.get("type").asText());
+                assertEquals(settings, payload.get("settings"));
+            }
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    void switchTest() throws Exception {
+        GoogolplexService service = newConnectedService();
+        try {
+            ObjectNode settings = MapperUtil.MAPPER.createObjectNode().put("url", "https://example.com/");
+            Instant at = Instant.now().plusSeconds(1);
+            SwitchResult result = service.scheduleSwitch(null, null, settings, at).block();
+            log.info("SWITCH devices={} committed={}", DEVICES, result.getCommitted());
+            assertEquals(DEVICES, result.getCommitted());
+            for (FakeCast cast : casts) {
+                CastMessage message;
+                JsonNode payload;
+                do {
+                    message = cast.getMessage();
+                    payload = MapperUtil.MAPPER.readTree(message.getPayloadUtf8());
+                } while (!GoogolplexClient.TYPE_COMMIT.equals(payload.path("type").asText()));
+                // the fake devices share our clock, so the offset should be negligible
+                long skew = Math.abs(payload.get("at").asLong() - at.toEpochMilli());
+                assertTrue(skew < 50, "skew " + skew);
+                assertEquals(settings, cast.loadedSettings);
+            }
+        } finally {
+            service.close();
+        }
+    }
+
+    /**
+     * Connect a service to all of the devices.
+     *
+     * @return a service whose devices have received their settings
+     */
+    private static GoogolplexService newConnectedService() throws Exception {
+        GoogolplexService service = new GoogolplexService(
+                client,
+                TestProperties.service()
+                        .probeInterval(Duration.ofSeconds(1))
+                        .probeFailures(3)
+                        .dormantProbeInterval(Duration.ofSeconds(1))
+                        .dormantProbeMaxInterval(Duration.ofSeconds(1))
+                        .statusDeadline(Duration.ofSeconds(2))
+                        .statusConcurrency(DEVICES)
+                        .scheduleJitter(Duration.ofSeconds(10))
+                        .build(),
+                TestProperties.cluster().build());
+        List<DeviceInfo> devices = new ArrayList<>();
+        for (FakeCast cast : casts) {
+            devices.add(cast.device());
+        }
+        service.processDeviceConfig(new DeviceConfig(devices, null)).get();
+        for (FakeCast cast : casts) {
+            service.register(cast.event()).get();
+        }
+        awaitSettings();
+        return service;
+    }
+
+    @Test
+    void codecBenchmarkTest() {
+        int iterations = 100000;
+        long legacyNanos = benchmarkCodec(CastMessageCodecTest.newLegacyChannel(), iterations);
+        long nanos = benchmarkCodec(CastMessageCodecTest.newChannel(), iterations);
+        log.info(
+                "CODEC iterations={} legacy={}ns/msg combined={}ns/msg",
+                iterations,
+                legacyNanos / iterations,
+                nanos / iterations);
+    }
+
+    /**
+     * Encode and decode the same message repeatedly after a warmup.
+     *
+     * @param channel a channel with the codec under test
+     * @param iterations the number of round trips to time
+     * @return the total time spent
+     */
+    private static long benchmarkCodec(EmbeddedChannel channel, int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            roundTrip(channel);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            roundTrip(channel);
+        }
+        long elapsed = System.nanoTime() - start;
+        channel.finishAndReleaseAll();
+        return elapsed;
+    }
+
+    private static void roundTrip(EmbeddedChannel channel) {
+        channel.writeOutbound(CastMessageCodecTest.MESSAGE);
+        ByteBuf buf;
+        while ((buf = channel.readOutbound()) != null) {
+            channel.writeInbound(buf);
+        }
+        assertEquals(CastMessageCodecTest.MESSAGE, channel.readInbound());
+    }
+
+    private static List<Disposable> connectAll() throws Exception {
+        List<Disposable> out = new ArrayList<>();
+        for (FakeCast cast : casts) {
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), cast.port);
+            out.add(client.connect(address, cast.device(), new ChannelState())
+                    .subscribe());
+        }
+        awaitSettings();
+        return out;
+    }
+
+    /** Wait for each device to receive its settings. */
+    private static void awaitSettings() throws Exception {
+        for (FakeCast cast : casts) {
+            CastMessage message;
+            do {
+                message = cast.getMessage();
+            } while (!GoogolplexClient.NAMESPACE_CUSTOM.equals(message.getNamespace()));
+        }
+    }
+}
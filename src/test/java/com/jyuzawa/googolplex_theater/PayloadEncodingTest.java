@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.zip.InflaterInputStream;
+import org.junit.jupiter.api.Test;
+
+class PayloadEncodingTest {
+
+    @Test
+    void roundTripTest() throws Exception {
+        JsonNode payload = MapperUtil.MAPPER.readTree(
+                "{\"name\":\"device\",\"settings\":{\"url\":\"https://example.com/\",\"refreshSeconds\":180,\"ratio\":1.5,\"on\":true,\"list\":[1,null,\"a\"]}}");
+        assertSame(payload, PayloadEncoding.JSON.wrap(payload));
+        PayloadEncoding encoding = PayloadEncoding.JSON_DEFLATE;
+        Map<?, ?> envelope = (Map<?, ?>) encoding.wrap(payload);
+        assertEquals(encoding.getLabel(), envelope.get("encoding"));
+        // the envelope is what actually goes over the wire
+        JsonNode wire = MapperUtil.MAPPER.readTree(MapperUtil.MAPPER.writeValueAsString(envelope));
+        byte[] data = wire.get("data").binaryValue();
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(data))) {
+            assertEquals(payload, MapperUtil.MAPPER.readTree(in));
+        }
+    }
+
+    @Test
+    void labelTest() {
+        assertEquals(PayloadEncoding.JSON_DEFLATE, PayloadEncoding.of("json-deflate"));
+        assertThrows(IllegalArgumentException.class, () -> PayloadEncoding.of("cbor-deflate"));
+        assertThrows(IllegalArgumentException.class, () -> PayloadEncoding.of("smile"));
+    }
+}
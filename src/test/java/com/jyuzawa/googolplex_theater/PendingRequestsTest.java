@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+class PendingRequestsTest {
+
+    @Test
+    void completeTest() {
+        PendingRequests pendingRequests = new PendingRequests();
+        List<Integer> sent = new ArrayList<>();
+        JsonNode response = pendingRequests
+                .request(Duration.ofSeconds(1), 0, requestId -> {
+                    sent.add(requestId);
+                    // respond immediately, like a device would
+                    pendingRequests.complete(requestId, TextNode.valueOf("ok"));
+                    return Mono.empty();
+                })
+                .block();
+        assertEquals(TextNode.valueOf("ok"), response);
+        assertEquals(List.of(1), sent);
+        assertEquals(0, pendingRequests.size());
+        assertFalse(pendingRequests.complete(1, TextNode.valueOf("late")));
+        assertFalse(pendingRequests.complete(0, TextNode.valueOf("unsolicited")));
+    }
+
+    @Test
+    void retryTest() {
+        PendingRequests pendingRequests = new PendingRequests();
+        List<Integer> sent = new ArrayList<>();
+        JsonNode response = pendingRequests
+                .request(Duration.ofMillis(50), 2, requestId -> {
+                    sent.add(requestId);
+                    // only the last attempt is answered
+                    if (sent.size() == 3) {
+                        assertTrue(pendingRequests.complete(requestId, TextNode.valueOf("ok")));
+                    }
+                    return Mono.empty();
+                })
+                .block();
+        assertEquals(TextNode.valueOf("ok"), response);
+        assertEquals(List.of(1, 2, 3), sent);
+        assertEquals(0, pendingRequests.size());
+    }
+
+    @Test
+    void timeoutTest() {
+        PendingRequests pendingRequests = new PendingRequests();
+        Mono<JsonNode> request = pendingRequests.request(Duration.ofMillis(10), 1, requestId -> Mono.empty());
+        Exception e = assertThrows(RuntimeException.class, request::block);
+        assertTrue(e.getCause() instanceof TimeoutException);
+        assertEquals(0, pendingRequests.size());
+    }
+}
@@ -6,6 +6,7 @@ package com.jyuzawa.googolplex_theater;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.fasterxml.jackson.databind.JsonNode;
@@ -27,10 +28,16 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import javax.jmdns.JmDNS;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
@@ -50,9 +57,12 @@ public class StepDefinitions {
     private static FakeCast device;
     private static EventLoopGroup workerGroup;
     private int loadCount;
+    private int relaunchCount;
     private static final ObjectNode BASE_SETTINGS =
             MapperUtil.MAPPER.getNodeFactory().objectNode().put("foo", "bar");
     private static JmDNS mdns;
+    private Instant switchAt;
+    private JsonNode switchResult;
 
     @BeforeAll
     public static void start() throws Exception {
@@ -95,6 +105,8 @@ public class StepDefinitions {
 
     @After
     public void tearDown() throws IOException {
+        device.clockOffsetMillis = 0;
+        device.stageable = true;
         writeEmptyDevices();
         mdns.unregisterAllServices();
     }
@@ -115,6 +127,103 @@ public class StepDefinitions {
         writeDevices(new DeviceConfig(Collections.singletonList(deviceInfo), BASE_SETTINGS));
     }
 
+    @When("the device url is patched to {string}")
+    public void the_device_url_is_patched_to(String url) {
+        ObjectNode settings = MapperUtil.MAPPER.getNodeFactory().objectNode().put("url", url);
+        DeviceInfo deviceInfo = new DeviceInfo(device.name, settings);
+        webTestClient
+                .patch()
+                .uri("/api/devices")
+                .bodyValue(new GoogolplexController.DevicePatch(List.of(deviceInfo), null))
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody()
+                .jsonPath("$.changed[0].name")
+                .isEqualTo(device.name);
+    }
+
+    @When("the device is removed over the API")
+    public void the_device_is_removed_over_the_api() {
+        webTestClient
+                .patch()
+                .uri("/api/devices")
+                .bodyValue(new GoogolplexController.DevicePatch(null, List.of(device.name)))
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody()
+                .jsonPath("$.removed[0]")
+                .isEqualTo(device.name);
+        webTestClient
+                .get()
+                .uri("/api/devices")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody()
+                .jsonPath("$.devices")
+                .isEmpty();
+    }
+
+    @When("the device clock is {int} ms ahead")
+    public void the_device_clock_is_ms_ahead(Integer millis) {
+        device.clockOffsetMillis = millis;
+    }
+
+    @When("the device cannot stage settings")
+    public void the_device_cannot_stage_settings() {
+        device.stageable = false;
+    }
+
+    @When("a switch to url {string} is scheduled")
+    public void a_switch_to_url_is_scheduled(String url) {
+        ObjectNode settings = MapperUtil.MAPPER.getNodeFactory().objectNode().put("url", url);
+        switchAt = Instant.now().plusSeconds(5).truncatedTo(ChronoUnit.MILLIS);
+        switchResult = webTestClient
+                .post()
+                .uri("/api/switch")
+                .bodyValue(new GoogolplexController.SwitchSpec(null, null, settings, switchAt))
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody(JsonNode.class)
+                .returnResult()
+                .getResponseBody();
+        // the exchanges are over once the result is in
+        device.clearMessages();
+    }
+
+    @Then("the device switched to url {string} on its own clock")
+    public void the_device_switched_to_url_on_its_own_clock(String url) {
+        JsonNode result = getSwitchResult();
+        assertEquals(SwitchResult.Result.COMMITTED.name(), result.get("result").asText());
+        assertEquals(1, switchResult.get("committed").asInt());
+        long offset = device.clockOffsetMillis;
+        long estimated = result.get("clockOffsetMillis").asLong();
+        assertTrue(Math.abs(estimated - offset) < 100, "offset " + estimated);
+        // the commit is scheduled in terms of the device's clock
+        long skew = Math.abs(device.committedAt - (switchAt.toEpochMilli() + offset));
+        assertTrue(skew < 100, "skew " + skew);
+        assertEquals(url, device.loadedSettings.get("url").asText());
+    }
+
+    @Then("the device failed to switch")
+    public void the_device_failed_to_switch() {
+        assertEquals(SwitchResult.Result.FAILED.name(), getSwitchResult().get("result").asText());
+        assertEquals(0, switchResult.get("committed").asInt());
+    }
+
+    private JsonNode getSwitchResult() {
+        assertNotNull(switchResult);
+        for (JsonNode result : switchResult.get("devices")) {
+            if (device.name.equals(result.get("name").asText())) {
+                return result;
+            }
+        }
+        throw new AssertionError("device not in the switch result");
+    }
+
     @Then("the device loaded url {string}")
     public void the_device_loaded_url(String url) throws Exception {
         assertTransaction(device, url);
@@ -125,11 +234,36 @@ public class StepDefinitions {
         assertEquals(times.intValue(), loadCount);
     }
 
+    @Then("the device relaunched url {string}")
+    public void the_device_relaunched_url(String url) throws Exception {
+        // the application is launched again without reconnecting
+        CastMessage launch = device.getMessage();
+        assertType(launch, GoogolplexClient.DEFAULT_RECEIVER_ID, GoogolplexClient.NAMESPACE_RECEIVER);
+        JsonNode node = MapperUtil.MAPPER.readTree(launch.getPayloadUtf8());
+        assertEquals("LAUNCH", node.get("type").asText());
+        assertEquals(GoogolplexClient.DEFAULT_APPLICATION_ID, node.get("appId").asText());
+        assertSession(device, url);
+        relaunchCount++;
+    }
+
+    @Then("the device relaunched {int} times")
+    public void the_device_relaunched_times(Integer times) {
+        assertEquals(times.intValue(), relaunchCount);
+    }
+
     @When("the device is unregistered")
     public void the_device_is_unregistered() throws IOException {
         writeEmptyDevices();
     }
 
+    @Then("the receiver was told to quit")
+    public void the_receiver_was_told_to_quit() throws Exception {
+        // the session is closed, rather than just dropped, so the receiver does not wait for a reconnect
+        CastMessage close = device.getMessage();
+        assertType(close, device.toString(), GoogolplexClient.NAMESPACE_CONNECTION);
+        assertEquals("{\"type\":\"CLOSE\"}", close.getPayloadUtf8());
+    }
+
     @Then("the device is not connected")
     public void the_device_is_not_connected() {
         assertFalse(device.isConnected());
@@ -159,6 +293,40 @@ public class StepDefinitions {
         webTestClient.get().uri("/").exchange().expectStatus().is2xxSuccessful();
     }
 
+    @Then("the status feed reports the device")
+    public void the_status_feed_reports_the_device() {
+        List<DeviceStatus> devices = webTestClient
+                .get()
+                .uri("/api/feed")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<List<DeviceStatus>>>() {})
+                .getResponseBody()
+                .blockFirst()
+                .data();
+        DeviceStatus status = devices.stream()
+                .filter(deviceStatus -> device.name.equals(deviceStatus.getName()))
+                .findFirst()
+                .orElseThrow();
+        assertNotNull(status.getSettings());
+    }
+
+    @Then("the federation page loads properly")
+    public void the_federation_page_loads_properly() {
+        webTestClient.get().uri("/federation").exchange().expectStatus().is2xxSuccessful();
+        webTestClient
+                .get()
+                .uri("/api/federation")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody()
+                .jsonPath("$.sites")
+                .isEmpty();
+    }
+
     @When("the device is refreshed")
     public void the_device_is_refreshed() throws InterruptedException {
         refresh(device.name);
@@ -192,12 +360,38 @@ public class StepDefinitions {
         assertTrue(device.pongable);
     }
 
+    @When("the device reconnects after loading")
+    public void the_device_reconnects_after_loading() throws InterruptedException {
+        // give the client time to take note of the acknowledgement
+        Thread.sleep(1000L);
+        device.closeChannel();
+    }
+
+    @When("the device reconnects with other content loaded")
+    public void the_device_reconnects_with_other_content_loaded() throws InterruptedException {
+        Thread.sleep(1000L);
+        device.loadedFingerprint = "other";
+        device.closeChannel();
+    }
+
+    @Then("the device was sent url {string}")
+    public void the_device_was_sent_url(String url) throws Exception {
+        JsonNode node = assertTransaction(device, url);
+        assertTrue(node.has("settings"));
+    }
+
+    @Then("the device reused url {string}")
+    public void the_device_reused_url(String url) throws Exception {
+        JsonNode node = assertTransaction(device, url);
+        assertFalse(node.has("settings"));
+    }
+
     @When("the device has broken messages")
     public void the_device_has_broken_messages() throws Exception {
         device.sendBrokenMessages();
     }
 
-    private void assertTransaction(FakeCast cast, String url) throws Exception {
+    private JsonNode assertTransaction(FakeCast cast, String url) throws Exception {
         CastMessage connect = cast.getMessage();
         assertType(connect, GoogolplexClient.DEFAULT_RECEIVER_ID, GoogolplexClient.NAMESPACE_CONNECTION);
         assertEquals("{\"type\":\"CONNECT\"}", connect.getPayloadUtf8());
@@ -205,9 +399,18 @@ public class StepDefinitions {
         CastMessage launch = cast.getMessage();
         assertType(launch, GoogolplexClient.DEFAULT_RECEIVER_ID, GoogolplexClient.NAMESPACE_RECEIVER);
         assertEquals(
-                "{\"requestId\":0,\"appId\":\"" + GoogolplexClient.DEFAULT_APPLICATION_ID + "\",\"type\":\"LAUNCH\"}",
+                "{\"requestId\":1,\"appId\":\"" + GoogolplexClient.DEFAULT_APPLICATION_ID + "\",\"type\":\"LAUNCH\"}",
                 launch.getPayloadUtf8());
 
+        JsonNode node = assertSession(cast, url);
+        loadCount++;
+        return node;
+    }
+
+    /**
+     * @return the payload which brought the device's content up to date
+     */
+    private JsonNode assertSession(FakeCast cast, String url) throws Exception {
         CastMessage appConnect = cast.getMessage();
         assertType(appConnect, cast.toString(), GoogolplexClient.NAMESPACE_CONNECTION);
         assertEquals("{\"type\":\"CONNECT\"}", appConnect.getPayloadUtf8());
@@ -216,8 +419,14 @@ public class StepDefinitions {
         assertType(app, cast.toString(), GoogolplexClient.NAMESPACE_CUSTOM);
         JsonNode node = MapperUtil.MAPPER.readTree(app.getPayloadUtf8());
         assertEquals(cast.name, node.get("name").asText());
-        assertEquals(url, node.get("settings").get("url").asText());
-        loadCount++;
+        if (node.has("settings")) {
+            assertEquals(url, node.get("settings").get("url").asText());
+        } else {
+            // the settings were omitted, since the device reported them as already loaded
+            assertEquals(cast.loadedFingerprint, node.get("fingerprint").asText());
+            assertEquals(url, cast.loadedSettings.get("url").asText());
+        }
+        return node;
     }
 
     private void assertType(CastMessage msg, String receiverId, String namespace) {
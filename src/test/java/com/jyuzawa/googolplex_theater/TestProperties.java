@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2026 James Yuzawa (https://www.jyuzawa.com/)
+ * SPDX-License-Identifier: MIT
+ */
+package com.jyuzawa.googolplex_theater;
+
+import java.time.Duration;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Settings for the tests which create their components directly. These start from short timings, so
+ * each test only sets what it cares about.
+ *
+ * @author jyuzawa
+ */
+final class TestProperties {
+
+    private TestProperties() {}
+
+    static ClientProperties.ClientPropertiesBuilder client() {
+        return ClientProperties.builder()
+                .appId(GoogolplexClient.DEFAULT_APPLICATION_ID)
+                .retryInterval(Duration.ofSeconds(1))
+                .requestTimeout(Duration.ofSeconds(1))
+                .requestRetries(2)
+                .relaunchAttempts(3)
+                .relaunchInterval(Duration.ofMillis(100))
+                .maxConcurrentConnects(4)
+                .tlsSessionCacheSize(256)
+                .tlsSessionTimeout(Duration.ofHours(1))
+                .eventLoopThreads(1)
+                .preferNativeTransport(true)
+                .pooledDirectBuffers(true)
+                .bufferArenas(0)
+                .bufferChunkSize(DataSize.ofBytes(0))
+                .maxFrameLength(DataSize.ofMegabytes(1))
+                .deviceHistograms(true)
+                .customEncoding("json");
+    }
+
+    static HeartbeatProperties.HeartbeatPropertiesBuilder heartbeat() {
+        return HeartbeatProperties.builder()
+                .heartbeatInterval(Duration.ofSeconds(1))
+                .heartbeatTimeout(Duration.ofSeconds(3))
+                .heartbeatMaxInterval(Duration.ofSeconds(8))
+                .adaptiveHeartbeat(true);
+    }
+
+    static ServiceProperties.ServicePropertiesBuilder service() {
+        return ServiceProperties.builder()
+                .probeInterval(Duration.ofMillis(10))
+                .probeFailures(2)
+                .dormantProbeInterval(Duration.ofMillis(10))
+                .dormantProbeMaxInterval(Duration.ofMillis(50))
+                .statusDeadline(Duration.ofSeconds(1))
+                .statusConcurrency(16)
+                .switchLead(Duration.ofSeconds(1))
+                .scheduleJitter(Duration.ZERO);
+    }
+
+    static ClusterProperties.ClusterPropertiesBuilder cluster() {
+        return ClusterProperties.builder()
+                .clusterMode("standalone")
+                .clusterPath("cluster")
+                .clusterMemberId("")
+                .clusterLease(Duration.ofSeconds(15))
+                .clusterRampRate(0);
+    }
+}
@@ -16,7 +16,8 @@ Feature: Detect device configuration and service discovery changes
 	Scenario Outline: Device disconnects when device is removed from configuration.
 		Given a registered device with url "https://example.com/a"
 		When the device is unregistered
-		Then the device connected 1 times
+		Then the receiver was told to quit
+		And the device connected 1 times
 		And the device is not connected
 		And the user interface loads properly
 	Scenario Outline: Device connects when device is added from configuration.
@@ -25,3 +26,18 @@ Feature: Detect device configuration and service discovery changes
 		Then the device loaded url "https://example.com/a"
 		And the device connected 1 times
 		And the user interface loads properly
+	Scenario Outline: Device refreshes when config is patched over the API.
+		Given a registered device with url "https://example.com/a"
+		When the device url is patched to "https://example.com/b"
+		Then the device loaded url "https://example.com/b"
+		And the device connected 2 times
+	Scenario Outline: Device disconnects when device is removed over the API.
+		Given a registered device with url "https://example.com/a"
+		When the device is removed over the API
+		Then the receiver was told to quit
+		And the device connected 1 times
+		And the device is not connected
+	Scenario Outline: Device status is published on the feed.
+		Given a registered device with url "https://example.com/a"
+		Then the status feed reports the device
+		And the federation page loads properly
@@ -1,11 +1,12 @@
 Feature: Resilience
 	The application should maintain reliable connections with the registered devices.
 
-	Scenario Outline: Reconnect when home screen detected.
+	Scenario Outline: Relaunch when home screen detected.
 		Given a registered device with url "https://example.com/a"
 		When the device has home screen
-		Then the device loaded url "https://example.com/a"
-		And the device connected 2 times
+		Then the device relaunched url "https://example.com/a"
+		And the device connected 1 times
+		And the device relaunched 1 times
 	Scenario Outline: Reconnect when connection closed.
 		Given a registered device with url "https://example.com/a"
 		When the device has connection closed
@@ -16,8 +17,24 @@ Feature: Resilience
 		When the device has lost pings
 		Then the device loaded url "https://example.com/a"
 		And the device connected 2 times
-	Scenario Outline: Reconnect when device sends broken messages.
+	Scenario Outline: Relaunch when device sends broken messages.
 		Given a registered device with url "https://example.com/a"
 		When the device has broken messages
-		Then the device loaded url "https://example.com/a"
+		Then the device relaunched url "https://example.com/a"
+		And the device connected 1 times
+		And the device relaunched 1 times
+	Scenario Outline: Skip the settings when reconnecting to loaded content.
+		Given a registered device with url "https://example.com/a"
+		When the device reconnects after loading
+		Then the device reused url "https://example.com/a"
+		And the device connected 2 times
+	Scenario Outline: Resend the settings when the device has other content loaded.
+		Given a registered device with url "https://example.com/a"
+		When the device reconnects with other content loaded
+		Then the device was sent url "https://example.com/a"
+		And the device connected 2 times
+	Scenario Outline: Resend the settings when the fingerprint changed.
+		Given a registered device with url "https://example.com/a"
+		When the device url is set to "https://example.com/b"
+		Then the device was sent url "https://example.com/b"
 		And the device connected 2 times
@@ -0,0 +1,15 @@
+Feature: Scheduled Switch
+	The devices should switch their content together at a scheduled time, regardless of their clocks.
+
+	Scenario Outline: Switch at a scheduled time on the device's clock.
+		Given a registered device with url "https://example.com/a"
+		When the device clock is 5000 ms ahead
+		And a switch to url "https://example.com/b" is scheduled
+		Then the device switched to url "https://example.com/b" on its own clock
+		And the device connected 1 times
+	Scenario Outline: Report a device which could not stage a switch.
+		Given a registered device with url "https://example.com/a"
+		When the device cannot stage settings
+		And a switch to url "https://example.com/b" is scheduled
+		Then the device failed to switch
+		And the device connected 1 times